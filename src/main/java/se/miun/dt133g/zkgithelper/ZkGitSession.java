@@ -0,0 +1,128 @@
+package se.miun.dt133g.zkgithelper;
+
+import se.miun.dt133g.zkgithelper.connection.GitConnection;
+import se.miun.dt133g.zkgithelper.files.CacheManager;
+import se.miun.dt133g.zkgithelper.files.FileUtils;
+import se.miun.dt133g.zkgithelper.git.GitHandler;
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.SessionAbortedException;
+import se.miun.dt133g.zkgithelper.support.Settings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One remote helper session: a connection to the ZK client, a handler for one working
+ * repository and the streams git's commands arrive on and answers go out on. The
+ * command-line helper runs a single session on standard input and output; a program
+ * embedding the helper can run several sessions side by side, each on its own streams,
+ * and a failing session throws {@link SessionAbortedException} instead of exiting.
+ * @author Leif Rogell
+ */
+public final class ZkGitSession implements AutoCloseable {
+
+    private final IoUtils io;
+    private final GitConnection connection;
+    private final GitHandler handler;
+
+    /**
+     * Opens a session on its own streams.
+     * @param url the remote URL, such as {@code zkgit::http://localhost:5000/Repo.git}
+     * @param workDir the directory git runs the helper in
+     * @param in the stream of git's commands
+     * @param out the stream for the answers
+     * @throws SessionAbortedException if the repository cannot be opened or the client is not running
+     */
+    public ZkGitSession(final String url, final String workDir, final InputStream in, final OutputStream out) {
+        this(url, workDir, new IoUtils(in, out));
+    }
+
+    /**
+     * Opens a session on the given I/O. The first session of a process also applies the
+     * process-wide settings and cache configuration of its repository.
+     * @param url the remote URL
+     * @param workDir the directory git runs the helper in
+     * @param io the session's input and output
+     * @throws SessionAbortedException if the repository cannot be opened or the client is not running
+     */
+    ZkGitSession(final String url, final String workDir, final IoUtils io) {
+        this.io = io;
+        this.connection = new GitConnection(io);
+        this.handler = new GitHandler(connection, io);
+
+        try {
+            connection.setDstPort(url);
+
+            String repoName = handler.extractRepoName(url);
+            String dirName = handler.extractRepoName(workDir);
+            String repoPath = repoName.equals(dirName) ? workDir : workDir + "/" + repoName;
+
+            handler.setRepoName(repoName);
+            handler.setRepoPath(repoPath);
+            Settings.INSTANCE.configure(handler.getConfig());
+            CacheManager.INSTANCE.configure(handler.getConfig());
+            connection.configure(handler.getConfig());
+            CompletableFuture<String> status = connection.statusAsync();
+            //connection.cleanTmp(repoName);
+            try {
+                handler.setTmpRepoPath(FileUtils.INSTANCE.createTmpDirectory(repoName));
+            } catch (IOException e) {
+                io.fatal(AppConfig.ERROR_CREATE_TMP_DIRECTORY + e.getMessage());
+            }
+            connection.ensureConnected(status);
+        } catch (RuntimeException e) {
+            // release the pool handles and cache pin taken so far, or an embedded caller leaks them
+            handler.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Handles git's commands (capabilities, list, push, fetch) until the blank line that
+     * ends the session.
+     * @throws SessionAbortedException if a command fails
+     */
+    public void run() {
+        Scanner scanner = io.getScanner();
+        try {
+            while (true) {
+                String line = scanner.nextLine();
+                io.trace("input: " + line);
+
+                if (line.equals(AppConfig.GIT_CAPABILITIES)) {
+                    io.write(AppConfig.GIT_PUSH);
+                    io.write(AppConfig.GIT_FETCH);
+                    io.write(AppConfig.GIT_END);
+                } else if (line.startsWith(AppConfig.GIT_LIST)) {
+                    handler.doList(line);
+                } else if (line.startsWith(AppConfig.GIT_PUSH)) {
+                    io.trace(AppConfig.STATUS_BEGIN_PUSH);
+                    handler.doPush(line);
+                } else if (line.startsWith(AppConfig.GIT_FETCH)) {
+                    handler.doFetch(line);
+                } else if (line.equals(AppConfig.GIT_END)) {
+                    break;
+                } else {
+                    io.fatal(AppConfig.ERROR_UNSUPPORTED_OPERATION
+                             + line);
+                }
+            }
+        } catch (SessionAbortedException e) {
+            throw e;
+        } catch (Exception e) {
+            io.fatal(e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the session's repositories.
+     */
+    @Override
+    public void close() {
+        handler.close();
+    }
+}
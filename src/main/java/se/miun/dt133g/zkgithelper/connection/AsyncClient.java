@@ -0,0 +1,198 @@
+package se.miun.dt133g.zkgithelper.connection;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.Settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs command exchanges with the ZK client on a single selector thread. Each exchange
+ * writes one command line on its own non-blocking channel and completes with the
+ * first response line, so any number of commands can be in flight without a thread
+ * each. Works with both TCP and Unix domain socket channels.
+ * @author Leif Rogell
+ */
+final class AsyncClient {
+
+    private final Queue<Exchange> pending = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+    /**
+     * One command sent on a channel and the response line being collected.
+     */
+    private static final class Exchange {
+        private final SocketChannel channel;
+        private final ByteBuffer command;
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Exchange(final SocketChannel channel, final String line) {
+            this.channel = channel;
+            this.command = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Sends a command line on a channel and reads the response line.
+     * @param channel a non-blocking channel, connected or with a connection pending;
+     *                closed when the exchange ends
+     * @param line the command line, without line terminator
+     * @return the response line, or null if the client closed the connection first
+     */
+    CompletableFuture<String> exchange(final SocketChannel channel, final String line) {
+        Exchange exchange = new Exchange(channel, line);
+        try {
+            start();
+        } catch (IOException e) {
+            fail(exchange, e);
+            return exchange.result;
+        }
+        pending.add(exchange);
+        selector.wakeup();
+        return exchange.result;
+    }
+
+    /**
+     * Opens the selector and starts its thread on first use.
+     * @throws IOException if the selector cannot be opened
+     */
+    private synchronized void start() throws IOException {
+        if (selector != null) {
+            return;
+        }
+        selector = Selector.open();
+        Thread thread = new Thread(this::loop, AppConfig.ASYNC_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers new exchanges and services ready channels until the selector fails.
+     */
+    private void loop() {
+        ByteBuffer buffer = ByteBuffer.allocate(Settings.INSTANCE.getBufferSize());
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                IoUtils.INSTANCE.trace(AppConfig.ERROR_ASYNC_CONNECTION + e.getMessage());
+                for (Exchange exchange = pending.poll(); exchange != null; exchange = pending.poll()) {
+                    fail(exchange, e);
+                }
+                return;
+            }
+            for (Exchange exchange = pending.poll(); exchange != null; exchange = pending.poll()) {
+                try {
+                    int ops = exchange.channel.isConnectionPending() ? SelectionKey.OP_CONNECT : SelectionKey.OP_WRITE;
+                    exchange.channel.register(selector, ops, exchange);
+                } catch (IOException e) {
+                    fail(exchange, e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Exchange exchange = (Exchange) key.attachment();
+                try {
+                    service(key, exchange, buffer);
+                } catch (IOException e) {
+                    fail(exchange, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances one exchange: finishes connecting, writes the command, then reads until
+     * the end of the response line.
+     * @param key the channel's selection key
+     * @param exchange the exchange on the channel
+     * @param buffer the read buffer shared by all channels
+     * @throws IOException if the channel fails
+     */
+    private void service(final SelectionKey key,
+                         final Exchange exchange,
+                         final ByteBuffer buffer) throws IOException {
+        if (key.isConnectable() && exchange.channel.finishConnect()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        if (key.isWritable()) {
+            exchange.channel.write(exchange.command);
+            if (!exchange.command.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return;
+        }
+        if (key.isReadable()) {
+            buffer.clear();
+            int n = exchange.channel.read(buffer);
+            if (n == -1) {
+                finish(exchange, exchange.response.size() > 0 ? line(exchange.response) : null);
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    finish(exchange, line(exchange.response));
+                    return;
+                }
+                exchange.response.write(b);
+            }
+        }
+    }
+
+    /**
+     * Decodes a collected response line, dropping a trailing carriage return.
+     * @param response the bytes of the line
+     * @return the line
+     */
+    private static String line(final ByteArrayOutputStream response) {
+        String line = response.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    /**
+     * Closes an exchange's channel and completes it with its response.
+     * @param exchange the exchange
+     * @param response the response line
+     */
+    private static void finish(final Exchange exchange, final String response) {
+        close(exchange);
+        exchange.result.complete(response);
+    }
+
+    /**
+     * Closes an exchange's channel and fails it.
+     * @param exchange the exchange
+     * @param e the cause
+     */
+    private static void fail(final Exchange exchange, final IOException e) {
+        close(exchange);
+        exchange.result.completeExceptionally(e);
+    }
+
+    /**
+     * Closes an exchange's channel, which also cancels its selection key.
+     * @param exchange the exchange
+     */
+    private static void close(final Exchange exchange) {
+        try {
+            exchange.channel.close();
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_ASYNC_CONNECTION + e.getMessage());
+        }
+    }
+}
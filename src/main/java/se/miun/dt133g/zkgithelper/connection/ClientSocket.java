@@ -0,0 +1,82 @@
+package se.miun.dt133g.zkgithelper.connection;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * One connection to the ZK client, over either a Unix domain socket or loopback TCP.
+ * Both transports are used through plain streams, so every command is written the
+ * same way regardless of how the client is reached.
+ * @author Leif Rogell
+ */
+final class ClientSocket implements Closeable {
+
+    private final Closeable connection;
+    private final InputStream input;
+    private final OutputStream output;
+
+    private ClientSocket(final Closeable connection, final InputStream input, final OutputStream output) {
+        this.connection = connection;
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Connects to the client over loopback TCP.
+     * @param port the client's port
+     * @return the connection
+     * @throws IOException if the client cannot be reached
+     */
+    static ClientSocket tcp(final int port) throws IOException {
+        Socket socket = new Socket(AppConfig.CONN_LOCALHOST, port);
+        return new ClientSocket(socket, socket.getInputStream(), socket.getOutputStream());
+    }
+
+    /**
+     * Connects to the client over a Unix domain socket.
+     * @param path the socket file
+     * @return the connection
+     * @throws IOException if the socket does not exist or refuses the connection
+     */
+    static ClientSocket unix(final Path path) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ClientSocket(channel, Channels.newInputStream(channel), Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Returns the stream of data from the client.
+     * @return the input stream
+     */
+    InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * Returns the stream of data to the client.
+     * @return the output stream
+     */
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+}
@@ -2,36 +2,65 @@ package se.miun.dt133g.zkgithelper.connection;
 
 import se.miun.dt133g.zkgithelper.support.IoUtils;
 import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.Settings;
 
+import org.eclipse.jgit.lib.Config;
+
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.net.Socket;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Handles socket-based communication between the ZkGit client and server.
- * Manages port connections, file transfers, and status checks.
- * Implements a singleton pattern via the {@code INSTANCE} field.
+ * Manages port connections, file transfers, and status checks. The client is reached
+ * over a Unix domain socket when one is configured, with loopback TCP as fallback.
+ * The {@code *Async} methods send their command without blocking the caller and
+ * complete on a single selector thread shared by all connections of the process.
+ * Each session creates its own connection, so several sessions can talk to different
+ * clients or repositories in one process.
  * @author Leif Rogell
  */
 public final class GitConnection {
 
-    public static final GitConnection INSTANCE = new GitConnection();
+    private static final AsyncClient ASYNC = new AsyncClient();
 
+    private final IoUtils io;
     private int srcPort;
     private int dstPort;
+    private Path socketPath;
+    private boolean unixFailed;
 
     /**
      * Constructor that allocates an available source port for communication.
+     * @param io the session's input and output, used for traces and fatal errors
      */
-    private GitConnection() {
+    public GitConnection(final IoUtils io) {
+        this.io = io;
         try (ServerSocket serverSocket = new ServerSocket(0)) {
             this.srcPort = serverSocket.getLocalPort();
         } catch (IOException e) {
@@ -44,26 +73,101 @@ public final class GitConnection {
      * Terminates the application if connection fails or server is unresponsive.
      */
     public void ensureConnected() {
-        if (!isPortOpen()) {
-            IoUtils.INSTANCE.fatal(AppConfig.ERROR_CLIENT_NOT_RUNNING);
+        ensureConnected(statusAsync());
+    }
+
+    /**
+     * Ensures the server responded correctly to a STATUS command issued earlier, so the
+     * check can overlap with local work. Terminates the application if it did not.
+     * @param status The pending result of {@link #statusAsync()}.
+     */
+    public void ensureConnected(final CompletableFuture<String> status) {
+        String serverStatus;
+        try {
+            serverStatus = status.join();
+        } catch (CompletionException e) {
+            io.fatal(AppConfig.ERROR_CLIENT_NOT_RUNNING);
+            return;
         }
-        String serverStatus = checkServerStatus();
-        if (serverStatus.contains(AppConfig.COMMAND_SUCCESS)) {
-            IoUtils.INSTANCE.trace(AppConfig.STATUS_CLIENT_RUNNING);
+        if (serverStatus != null && serverStatus.contains(AppConfig.COMMAND_SUCCESS)) {
+            io.trace(AppConfig.STATUS_CLIENT_RUNNING);
         } else {
-            IoUtils.INSTANCE.fatal(AppConfig.ERROR_SERVER_NOT_CONNECTED
+            io.fatal(AppConfig.ERROR_SERVER_NOT_CONNECTED
                                    + serverStatus
                                    + AppConfig.NEW_LINE);
         }
     }
 
+    /**
+     * Checks, without exiting, whether the ZK client is running and connected.
+     * @return {@code true} if the client answers STATUS with success.
+     */
+    public boolean isAvailable() {
+        if (!isPortOpen()) {
+            return false;
+        }
+        String serverStatus = checkServerStatus();
+        return serverStatus != null && serverStatus.contains(AppConfig.COMMAND_SUCCESS);
+    }
+
+    /**
+     * Sends a STATUS command to the server without blocking.
+     * @return The server response, completed exceptionally if the client cannot be reached.
+     */
+    public CompletableFuture<String> statusAsync() {
+        return exchangeAsync(AppConfig.COMMAND_STATUS);
+    }
+
+    /**
+     * Sends a file to the server using the SEND command without blocking.
+     * @param filePath Path to the file to send.
+     * @param signature A unique identifier for the file (e.g., a hash or tag).
+     * @param manifestPath Path to the chunk manifest, or null to send without one.
+     * @return The server response, completed exceptionally if the client cannot be reached.
+     */
+    public CompletableFuture<String> sendFileAsync(final String filePath,
+                                                   final String signature,
+                                                   final String manifestPath) {
+        io.trace(AppConfig.STATUS_SEND_BEGIN);
+        return exchangeAsync(sendLine(filePath, signature, manifestPath)).thenApply(serverResponse -> {
+                io.trace("serverResponse: " + serverResponse);
+                return serverResponse;
+            });
+    }
+
+    /**
+     * Requests a file from the server using the REQUEST command without blocking.
+     * @param fileName Name of the file to retrieve.
+     * @param signature Identifier for file version or target state.
+     * @param wants Tokens naming the refs and history segments that differ, or empty.
+     * @return The server response, completed exceptionally if the client cannot be reached.
+     */
+    public CompletableFuture<String> requestFileAsync(final String fileName,
+                                                      final String signature,
+                                                      final List<String> wants) {
+        io.trace(AppConfig.STATUS_REQUEST_BEGIN + " " + fileName + " " + signature);
+        return exchangeAsync(requestLine(fileName, signature, wants)).thenApply(serverResponse -> {
+                traceRequestResponse(serverResponse);
+                return serverResponse;
+            });
+    }
+
+    /**
+     * Instructs the server to clean up temporary files of a repository without blocking.
+     * @param repoName Name of the repository whose temp data should be removed.
+     * @return The server response, completed exceptionally if the client cannot be reached.
+     */
+    public CompletableFuture<String> cleanTmpAsync(final String repoName) {
+        io.trace(AppConfig.STATUS_CLEANING_TMP);
+        return exchangeAsync(AppConfig.COMMAND_CLEAN + " " + repoName);
+    }
+
     /**
      * Sends a STATUS command to the server and returns its response.
      * @return Server response as a string, or "Unknown status" on failure.
      */
     private String checkServerStatus() {
-        try (Socket socket = new Socket(AppConfig.CONN_LOCALHOST,
-                                        dstPort);
+        try (ClientSocket socket = connect();
              OutputStream output = socket.getOutputStream();
              PrintWriter writer = new PrintWriter(output, true);
              InputStream input = socket.getInputStream();
@@ -83,20 +187,86 @@ public final class GitConnection {
     }
 
     /**
-     * Attempts to open a socket to the destination port to verify connectivity.
+     * Attempts to open a connection to the client to verify connectivity.
      * @return {@code true} if the port is reachable, otherwise {@code false}.
      */
     private boolean isPortOpen() {
-        try (Socket socket = new Socket(AppConfig.CONN_LOCALHOST,
-                                        dstPort)) {
-            return true;
+        try (ClientSocket socket = connect()) {
+            return socket != null;
         } catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Opens a connection to the client, over the Unix domain socket if one is configured
+     * and otherwise over TCP. Once the socket cannot be reached, TCP is used for the rest
+     * of the session.
+     * @return the connection
+     * @throws IOException if the client cannot be reached over either transport
+     */
+    private ClientSocket connect() throws IOException {
+        if (socketPath != null && !unixFailed) {
+            try {
+                return ClientSocket.unix(socketPath);
+            } catch (IOException | UnsupportedOperationException e) {
+                unixFailed = true;
+                io.trace(AppConfig.STATUS_UNIX_SOCKET_FALLBACK + socketPath + " " + e.getMessage());
+            }
+        }
+        return ClientSocket.tcp(dstPort);
+    }
+
+    /**
+     * Sends one command line on a new non-blocking channel through the selector thread.
+     * @param line The command line.
+     * @return The response line, completed exceptionally if the client cannot be reached.
+     */
+    private CompletableFuture<String> exchangeAsync(final String line) {
+        try {
+            return ASYNC.exchange(openChannel(), line);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Opens a non-blocking channel to the client and starts connecting it, over the
+     * Unix domain socket if one is configured and reachable, otherwise over TCP.
+     * @return The channel, connected or with a connection pending.
+     * @throws IOException if no channel can be opened
+     */
+    private SocketChannel openChannel() throws IOException {
+        if (socketPath != null && !unixFailed) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                channel.configureBlocking(false);
+                channel.connect(UnixDomainSocketAddress.of(socketPath));
+                return channel;
+            } catch (IOException | UnsupportedOperationException e) {
+                if (channel != null) {
+                    channel.close();
+                }
+                unixFailed = true;
+                io.trace(AppConfig.STATUS_UNIX_SOCKET_FALLBACK + socketPath + " " + e.getMessage());
+            }
+        }
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(AppConfig.CONN_LOCALHOST, dstPort));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
     /**
      * Parses the destination port number from the Git URL and stores it.
+     * A URL in the format {@code unix:/path/to/socket:port/repo} also selects the Unix
+     * domain socket transport, with the port as TCP fallback.
      * @param gitUrl Git remote URL in the format {@code user@host:port/repo}.
      */
     public void setDstPort(final String gitUrl) {
@@ -110,6 +280,25 @@ public final class GitConnection {
         } else {
             this.dstPort = 0;
         }
+
+        Matcher unixMatcher = Pattern.compile(".*" + AppConfig.UNIX_URL_PREFIX + "(/[^:]+)(:\\d+)?/[^/]*")
+            .matcher(gitUrl);
+        this.socketPath = unixMatcher.matches() ? Paths.get(unixMatcher.group(1)) : null;
+        this.unixFailed = false;
+    }
+
+    /**
+     * Reads {@code zkgit.socket} from a git configuration, the Unix domain socket of the
+     * client to use when the remote URL does not name one.
+     * @param config the configuration to read, usually the working repository's
+     */
+    public void configure(final Config config) {
+        String configured = config.getString(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                             AppConfig.CONFIG_KEY_SOCKET);
+        if (socketPath == null && configured != null && !configured.isEmpty()) {
+            this.socketPath = Paths.get(configured);
+            this.unixFailed = false;
+        }
     }
 
     /**
@@ -119,17 +308,29 @@ public final class GitConnection {
      * @return Response from the server, or "Unknown status" on error.
      */
     public String sendFile(final String filePath, final String signature) {
-        try (Socket socket = new Socket(AppConfig.CONN_LOCALHOST, dstPort);
+        return sendFile(filePath, signature, null);
+    }
+
+    /**
+     * Sends a file to the server using the SEND command, along with a chunk manifest
+     * telling the client which content-defined chunks are new and which it already has.
+     * @param filePath Path to the file to send.
+     * @param signature A unique identifier for the file (e.g., a hash or tag).
+     * @param manifestPath Path to the chunk manifest, or null to send without one.
+     * @return Response from the server, or "Unknown status" on error.
+     */
+    public String sendFile(final String filePath, final String signature, final String manifestPath) {
+        try (ClientSocket socket = connect();
              OutputStream output = socket.getOutputStream();
              PrintWriter writer = new PrintWriter(output, true);
              BufferedReader reader = new BufferedReader(
                 new InputStreamReader(socket.getInputStream()))) {
 
-            IoUtils.INSTANCE.trace(AppConfig.STATUS_SEND_BEGIN);
-            writer.println(AppConfig.COMMAND_SEND + " " + filePath + " " + signature);
+            io.trace(AppConfig.STATUS_SEND_BEGIN);
+            writer.println(sendLine(filePath, signature, manifestPath));
 
             String serverResponse = reader.readLine();
-            IoUtils.INSTANCE.trace("serverResponse: " + serverResponse);
+            io.trace("serverResponse: " + serverResponse);
             return serverResponse;
 
         } catch (UnknownHostException e) {
@@ -140,6 +341,56 @@ public final class GitConnection {
         return "Unknown status";
     }
 
+    /**
+     * Streams data to the server using the STREAM command. The data follows the command
+     * line as length-prefixed frames ending with an empty frame, then a COMMIT line if the
+     * source ended cleanly or an ABORT line with the reason if it failed, so the server
+     * never stores a partial transfer.
+     * @param name Name of the repository the data belongs to.
+     * @param signature A unique identifier for the data (e.g., a hash or tag).
+     * @param source Stream of the data to send; closed by the caller.
+     * @return Response from the server, an error if the source failed, or "Unknown status" on error.
+     */
+    public String streamFile(final String name, final String signature, final InputStream source) {
+        try (ClientSocket socket = connect();
+             DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), Settings.INSTANCE.getBufferSize()));
+             BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream()))) {
+
+            io.trace(AppConfig.STATUS_STREAM_BEGIN);
+            output.write((AppConfig.COMMAND_STREAM + " " + name + " " + signature + "\n")
+                         .getBytes(StandardCharsets.UTF_8));
+
+            String trailer = AppConfig.COMMAND_COMMIT;
+            byte[] buffer = new byte[AppConfig.STREAM_BLOCK_SIZE];
+            try {
+                int n;
+                while ((n = source.read(buffer)) != -1) {
+                    output.writeInt(n);
+                    output.write(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                trailer = AppConfig.COMMAND_ABORT + " " + String.valueOf(e.getMessage()).replaceAll("\\s+", " ");
+            }
+            output.writeInt(0);
+            output.write((trailer + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            String serverResponse = reader.readLine();
+            io.trace("serverResponse: " + serverResponse);
+            return trailer.equals(AppConfig.COMMAND_COMMIT)
+                ? serverResponse
+                : AppConfig.ERROR_KEY + " " + trailer;
+
+        } catch (UnknownHostException e) {
+            System.err.println("Server not found: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+        }
+        return "Unknown status";
+    }
+
     /**
      * Requests a file from the server using the REQUEST command.
      * @param fileName Name of the file to retrieve.
@@ -147,35 +398,132 @@ public final class GitConnection {
      * @return Server response, including success or uptodate status.
      */
     public String requestFile(final String fileName, final String signature) {
-        try (Socket socket = new Socket(AppConfig.CONN_LOCALHOST,
-                                        dstPort);
+        return requestFile(fileName, signature, Collections.emptyList());
+    }
+
+    /**
+     * Requests a file from the server using the REQUEST command, limited to the given
+     * parts of the repository.
+     * @param fileName Name of the file to retrieve.
+     * @param signature Identifier for file version or target state.
+     * @param wants Tokens such as {@code refs/heads/main@3} naming the refs and history
+     *              segments that differ, or empty to request everything.
+     * @return Server response, including success or uptodate status.
+     */
+    public String requestFile(final String fileName, final String signature, final List<String> wants) {
+        try (ClientSocket socket = connect();
              OutputStream output = socket.getOutputStream();
              PrintWriter writer = new PrintWriter(output, true);
              BufferedReader reader = new BufferedReader(
                 new InputStreamReader(socket.getInputStream()))) {
 
-            IoUtils.INSTANCE.trace(AppConfig.STATUS_REQUEST_BEGIN + " " + fileName + " " + signature);
-            writer.println(AppConfig.COMMAND_REQUEST + " " + fileName + " " + signature);
+            io.trace(AppConfig.STATUS_REQUEST_BEGIN + " " + fileName + " " + signature);
+            writer.println(requestLine(fileName, signature, wants));
 
             String serverResponse = reader.readLine();
-            IoUtils.INSTANCE.trace("serverResponse: " + serverResponse);
+            traceRequestResponse(serverResponse);
+            return serverResponse;
 
-            if (serverResponse.contains(AppConfig.COMMAND_SUCCESS)) {
-                if (serverResponse.contains(AppConfig.STATUS_REPO_UPTODATE)) {
-                    IoUtils.INSTANCE.trace(AppConfig.STATUS_REQUEST_UPTODATE);
-                } else {
-                    IoUtils.INSTANCE.trace(AppConfig.STATUS_REQUEST_FINISH);
-                }
+        } catch (UnknownHostException e) {
+            System.err.println("Server not found: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+        }
+        return "Unknown status";
+    }
+
+    /**
+     * Builds the SEND command line.
+     * @param filePath Path to the file to send.
+     * @param signature A unique identifier for the file.
+     * @param manifestPath Path to the chunk manifest, or null.
+     * @return The command line.
+     */
+    private static String sendLine(final String filePath, final String signature, final String manifestPath) {
+        return AppConfig.COMMAND_SEND + " " + filePath + " " + signature
+            + (manifestPath != null ? " " + manifestPath : "");
+    }
+
+    /**
+     * Builds the REQUEST command line.
+     * @param fileName Name of the file to retrieve.
+     * @param signature Identifier for file version or target state.
+     * @param wants Tokens naming the refs and history segments that differ, or empty.
+     * @return The command line.
+     */
+    private static String requestLine(final String fileName, final String signature, final List<String> wants) {
+        return AppConfig.COMMAND_REQUEST + " " + fileName + " " + signature
+            + (wants.isEmpty() ? "" : " " + String.join(" ", wants));
+    }
+
+    /**
+     * Traces the server's response to a REQUEST command.
+     * @param serverResponse The response line, or null.
+     */
+    private void traceRequestResponse(final String serverResponse) {
+        io.trace("serverResponse: " + serverResponse);
+        if (serverResponse != null && serverResponse.contains(AppConfig.COMMAND_SUCCESS)) {
+            if (serverResponse.contains(AppConfig.STATUS_REPO_UPTODATE)) {
+                io.trace(AppConfig.STATUS_REQUEST_UPTODATE);
+            } else {
+                io.trace(AppConfig.STATUS_REQUEST_FINISH);
             }
+        }
+    }
 
-            return serverResponse;
+    /**
+     * Runs one round of the Merkle tree comparison with the client using the REQUEST
+     * command: {@code REQUEST <file> MERKLE <kind> <scope> <key>:<hash>...}. The client
+     * answers {@code SUCCESS MERKLE} followed by the keys it holds differently. Any other
+     * answer, including a bare SUCCESS from a client that treats the line as a plain
+     * REQUEST, means the client cannot compare trees.
+     * @param fileName Name of the repository being compared.
+     * @param kind The kind of nodes sent: level, bucket or segments.
+     * @param scope The tree depth, bucket number or ref name of the nodes.
+     * @param nodes Node keys mapped to their hex hashes.
+     * @return The differing keys, or null if the client does not support the comparison.
+     */
+    public Set<String> compareTree(final String fileName,
+                                   final String kind,
+                                   final String scope,
+                                   final Map<String, String> nodes) {
+        try (ClientSocket socket = connect();
+             PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), true);
+             BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream()))) {
+
+            StringBuilder command = new StringBuilder(AppConfig.COMMAND_REQUEST)
+                .append(' ').append(fileName)
+                .append(' ').append(AppConfig.COMMAND_MERKLE)
+                .append(' ').append(kind)
+                .append(' ').append(scope);
+            for (Map.Entry<String, String> node : nodes.entrySet()) {
+                command.append(' ').append(node.getKey()).append(':').append(node.getValue());
+            }
+            writer.println(command);
+
+            String serverResponse = reader.readLine();
+            String marker = AppConfig.COMMAND_SUCCESS + ' ' + AppConfig.COMMAND_MERKLE;
+            if (serverResponse == null
+                || !(serverResponse.equals(marker) || serverResponse.startsWith(marker + ' '))) {
+                io.trace(AppConfig.STATUS_MERKLE_UNSUPPORTED + serverResponse);
+                return null;
+            }
+            Set<String> differing = new LinkedHashSet<>();
+            for (String token : serverResponse.substring(marker.length()).trim().split(" ")) {
+                if (!token.isEmpty()) {
+                    differing.add(token);
+                }
+            }
+            return differing;
 
         } catch (UnknownHostException e) {
             System.err.println("Server not found: " + e.getMessage());
         } catch (IOException e) {
             System.err.println("I/O error: " + e.getMessage());
         }
-        return "Unknown status";
+        return null;
     }
 
     /**
@@ -184,13 +532,13 @@ public final class GitConnection {
      * @return Server response after attempting cleanup.
      */
     public String cleanTmp(final String repoName) {
-        try (Socket socket = new Socket(AppConfig.CONN_LOCALHOST, dstPort);
+        try (ClientSocket socket = connect();
              OutputStream output = socket.getOutputStream();
              PrintWriter writer = new PrintWriter(output, true);
              BufferedReader reader = new BufferedReader(
                                                         new InputStreamReader(socket.getInputStream()))) {
 
-            IoUtils.INSTANCE.trace(AppConfig.STATUS_CLEANING_TMP);
+            io.trace(AppConfig.STATUS_CLEANING_TMP);
             writer.println(AppConfig.COMMAND_CLEAN
                            + " "
                            + repoName);
@@ -4,6 +4,7 @@
  * <p>This package includes the {@link se.miun.dt133g.zkgithelper.connection.GitConnection} class,
  * which manages port connections, file transfers, status checks, and other communication tasks
  * between the client and server. It implements a singleton pattern and offers methods for
- * ensuring server connectivity, sending/receiving files, and cleaning up temporary files.</p>
+ * ensuring server connectivity, sending/receiving files, and cleaning up temporary files.
+ * Connections go through {@code ClientSocket}, over a Unix domain socket or loopback TCP.</p>
  */
 package se.miun.dt133g.zkgithelper.connection;
@@ -0,0 +1,409 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Singleton manager for the {@code zkgit-tmp-<repo>} cache directories.
+ * Places caches under a configurable root, records each access, and keeps the
+ * total size within a budget by evicting the least recently used caches first.
+ * Caches used often within the warm window are only evicted when evicting all
+ * cold caches is not enough. A cache is pinned while a handler uses it, by a shared
+ * lock on its {@code zkgit-inuse} file that other processes see as well, and pinned
+ * caches are never evicted. Cache sizes are kept in a {@code zkgit-size} file, which is
+ * refreshed when the last pin of a cache is released, so eviction does not walk the
+ * cache trees.
+ * @author Leif Rogell
+ */
+public final class CacheManager {
+
+    public static final CacheManager INSTANCE = new CacheManager();
+
+    private Path root = Paths.get(System.getProperty(AppConfig.JAVA_TMP));
+    private long maxBytes = AppConfig.CACHE_DEFAULT_MAX_BYTES;
+    private int warmAccesses = AppConfig.CACHE_DEFAULT_WARM_ACCESSES;
+    private long warmWindowMillis = AppConfig.CACHE_DEFAULT_WARM_WINDOW_MILLIS;
+    private boolean configured;
+
+    /**
+     * A cache directory with its size and access history.
+     */
+    private static final class Entry {
+        private final Path dir;
+        private final long size;
+        private final long lastAccess;
+        private final boolean warm;
+
+        Entry(final Path dir, final long size, final long lastAccess, final boolean warm) {
+            this.dir = dir;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.warm = warm;
+        }
+    }
+
+    private final Map<Path, Usage> pinned = new HashMap<>();
+
+    /**
+     * The shared in-use lock of a pinned cache directory and the number of pins on it.
+     */
+    private static final class Usage {
+        private final FileChannel channel;
+        private final FileLock lock;
+        private int pins;
+
+        Usage(final FileChannel channel, final FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * A pin on a cache directory, released by {@link #close()}.
+     */
+    public final class Pin implements AutoCloseable {
+        private final Path dir;
+        private boolean closed;
+
+        private Pin(final Path dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * Releases the pin; the last pin of a cache records its size and drops the
+         * in-use lock. Closing a pin twice has no further effect.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unpin(dir);
+            }
+        }
+    }
+
+    private CacheManager() { }
+
+    /**
+     * Creates a manager of its own caches, for tests.
+     * @param root the directory holding the caches
+     * @param maxBytes the cache budget in bytes
+     * @param warmAccesses the accesses within the warm window that make a cache warm
+     * @param warmWindowMillis the warm window in milliseconds
+     */
+    CacheManager(final Path root, final long maxBytes, final int warmAccesses, final long warmWindowMillis) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.warmAccesses = warmAccesses;
+        this.warmWindowMillis = warmWindowMillis;
+        this.configured = true;
+    }
+
+    /**
+     * Reads the cache settings from the {@code zkgit} section of a git configuration:
+     * {@code cacheRoot}, {@code cacheMaxSize} (with k/m/g suffixes),
+     * {@code cacheWarmAccesses} and {@code cacheWarmWindowHours}. The caches are shared
+     * by the whole process, so only the first call applies, made when the process starts;
+     * sessions started later never move the root or budget of the ones running.
+     * @param config the configuration to read, usually the working repository's
+     */
+    public synchronized void configure(final Config config) {
+        if (configured) {
+            return;
+        }
+        configured = true;
+        String configuredRoot = config.getString(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                                 AppConfig.CONFIG_KEY_CACHE_ROOT);
+        if (configuredRoot != null) {
+            root = Paths.get(configuredRoot);
+        }
+        maxBytes = config.getLong(AppConfig.CONFIG_ZKGIT_SECTION,
+                                  AppConfig.CONFIG_KEY_CACHE_MAX_SIZE, maxBytes);
+        warmAccesses = config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                     AppConfig.CONFIG_KEY_CACHE_WARM_ACCESSES, warmAccesses);
+        warmWindowMillis = config.getLong(AppConfig.CONFIG_ZKGIT_SECTION,
+                                          AppConfig.CONFIG_KEY_CACHE_WARM_WINDOW_HOURS,
+                                          warmWindowMillis / AppConfig.ONE_HOUR_MILLIS)
+            * AppConfig.ONE_HOUR_MILLIS;
+    }
+
+    /**
+     * Returns the directory under which cache directories are created.
+     * @return the cache root
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Records an access to a cache directory, keeping the most recent access times.
+     * @param cacheDir the cache directory that was accessed
+     */
+    public void touch(final Path cacheDir) {
+        Path accessFile = cacheDir.resolve(AppConfig.CACHE_ACCESS_FILE);
+        List<String> times = readAccessTimes(accessFile);
+        times.add(Long.toString(System.currentTimeMillis()));
+        if (times.size() > AppConfig.CACHE_ACCESS_HISTORY) {
+            times = times.subList(times.size() - AppConfig.CACHE_ACCESS_HISTORY, times.size());
+        }
+        try {
+            Files.write(accessFile, String.join(AppConfig.NEW_LINE, times)
+                        .getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_CACHE_ACCESS + e.getMessage());
+        }
+    }
+
+    /**
+     * Pins a cache directory for as long as a handler uses it, creating the directory
+     * if needed. A directory evicted while this waits for the in-use lock is recreated.
+     * @param cacheDir the cache directory
+     * @return the pin; closing it allows the cache to be evicted again
+     * @throws IOException if the in-use lock cannot be taken
+     */
+    public synchronized Pin pin(final Path cacheDir) throws IOException {
+        Path dir = cacheDir.toAbsolutePath().normalize();
+        Usage usage = pinned.get(dir);
+        while (usage == null) {
+            Files.createDirectories(dir);
+            Path inUseFile = dir.resolve(AppConfig.CACHE_IN_USE_FILE);
+            FileChannel channel = FileChannel.open(inUseFile, StandardOpenOption.CREATE,
+                                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                Object opened = fileKey(inUseFile);
+                FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+                if (opened != null && opened.equals(fileKey(inUseFile))) {
+                    usage = new Usage(channel, lock);
+                    pinned.put(dir, usage);
+                } else {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        usage.pins++;
+        return new Pin(dir);
+    }
+
+    /**
+     * Drops one pin of a cache directory; the last one records the cache's size and
+     * releases its in-use lock.
+     * @param dir the normalized cache directory
+     */
+    private synchronized void unpin(final Path dir) {
+        Usage usage = pinned.get(dir);
+        if (usage == null || --usage.pins > 0) {
+            return;
+        }
+        pinned.remove(dir);
+        try {
+            writeSize(dir, sizeOf(dir));
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_CACHE_SCAN + e.getMessage());
+        }
+        try {
+            usage.lock.release();
+            usage.channel.close();
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_RELEASE_LOCK + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the identity of a file, which changes when it is replaced.
+     * @param file the file
+     * @return the file key, or null if the file does not exist or has no key
+     * @throws IOException if the file cannot be read
+     */
+    private static Object fileKey(final Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evicts cache directories until the total size fits the budget.
+     * Cold caches go first in least recently used order, then warm ones.
+     * Caches pinned by a handler of this or another helper process are never evicted.
+     */
+    public void evict() {
+        if (maxBytes <= 0) {
+            return;
+        }
+        List<Entry> entries = scan();
+        long total = entries.stream().mapToLong(entry -> entry.size).sum();
+        if (total <= maxBytes) {
+            return;
+        }
+
+        entries.sort(Comparator.comparing((Entry entry) -> entry.warm)
+                     .thenComparingLong(entry -> entry.lastAccess));
+        for (Entry entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!delete(entry.dir)) {
+                continue;
+            }
+            IoUtils.INSTANCE.trace(AppConfig.STATUS_CACHE_EVICTED + entry.dir);
+            total -= entry.size;
+        }
+    }
+
+    /**
+     * Checks whether the cache directories together exceed the budget.
+     * @return true if a budget is set and the total size is above it
+     */
+    public boolean isOverBudget() {
+        if (maxBytes <= 0) {
+            return false;
+        }
+        return scan().stream().mapToLong(entry -> entry.size).sum() > maxBytes;
+    }
+
+    /**
+     * Lists all cache directories under the root with their size and access history.
+     * @return the cache entries found
+     */
+    private List<Entry> scan() {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(root)) {
+            for (Path dir : dirs.filter(Files::isDirectory)
+                     .filter(dir -> dir.getFileName().toString().startsWith(AppConfig.TMP_PREFIX))
+                     .collect(Collectors.toList())) {
+                List<String> times = readAccessTimes(dir.resolve(AppConfig.CACHE_ACCESS_FILE));
+                long lastAccess = times.isEmpty()
+                    ? Files.getLastModifiedTime(dir).toMillis()
+                    : Long.parseLong(times.get(times.size() - 1));
+                long since = System.currentTimeMillis() - warmWindowMillis;
+                long recent = times.stream().mapToLong(Long::parseLong).filter(time -> time >= since).count();
+                entries.add(new Entry(dir, readSize(dir), lastAccess, recent >= warmAccesses));
+            }
+        } catch (IOException | NumberFormatException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_CACHE_SCAN + e.getMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the recorded access times of a cache directory.
+     * @param accessFile the access file of the cache directory
+     * @return the access times in milliseconds, oldest first; empty if none are recorded
+     */
+    private List<String> readAccessTimes(final Path accessFile) {
+        try {
+            if (Files.exists(accessFile)) {
+                return Files.readAllLines(accessFile, StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.isBlank())
+                    .collect(Collectors.toCollection(ArrayList::new));
+            }
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_CACHE_ACCESS + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Reads the recorded size of a cache directory, measuring and recording it if it
+     * has not been recorded yet.
+     * @param dir the cache directory
+     * @return the size in bytes
+     * @throws IOException if the directory cannot be measured
+     */
+    private long readSize(final Path dir) throws IOException {
+        Path sizeFile = dir.resolve(AppConfig.CACHE_SIZE_FILE);
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(sizeFile), StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            long size = sizeOf(dir);
+            writeSize(dir, size);
+            return size;
+        }
+    }
+
+    /**
+     * Records the size of a cache directory.
+     * @param dir the cache directory
+     * @param size the size in bytes
+     * @throws IOException if the size file cannot be written
+     */
+    private void writeSize(final Path dir, final long size) throws IOException {
+        Files.write(dir.resolve(AppConfig.CACHE_SIZE_FILE), Long.toString(size).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Computes the total size of the regular files in a directory tree.
+     * @param dir the directory to measure
+     * @return the size in bytes
+     * @throws IOException if the directory cannot be walked
+     */
+    private long sizeOf(final Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Deletes a cache directory unless it is pinned. The directory is renamed aside
+     * while its in-use lock is held, so no handler can pin it any more, and deleted
+     * after the lock is released; the lock files go with it and are never deleted
+     * while locked.
+     * @param dir the cache directory to delete
+     * @return true if the directory was removed from the cache root
+     */
+    private boolean delete(final Path dir) {
+        Path key = dir.toAbsolutePath().normalize();
+        Path aside = key.resolveSibling(AppConfig.CACHE_EVICTED_PREFIX + key.getFileName() + "-" + System.nanoTime());
+        synchronized (this) {
+            if (pinned.containsKey(key)) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(key.resolve(AppConfig.CACHE_IN_USE_FILE),
+                                                        StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                if (lock == null) {
+                    return false;
+                }
+                Files.move(key, aside, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                IoUtils.INSTANCE.trace(AppConfig.ERROR_CACHE_EVICT + dir + " - " + e.getMessage());
+                return false;
+            }
+        }
+        RepoLock.discard(key);
+        try (Stream<Path> files = Files.walk(aside)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_CACHE_EVICT + aside + " - " + e.getMessage());
+        }
+        return true;
+    }
+}
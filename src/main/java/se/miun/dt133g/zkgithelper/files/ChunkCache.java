@@ -0,0 +1,158 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The chunks of every file of the last manifest, stored in the temporary repository
+ * directory with each file's size and modification time. Object files are never
+ * rewritten in place, so a file whose size and time are unchanged is not read and
+ * chunked again. Each line reads
+ * {@code <size> <mtime> <file> <sha256>:<offset>:<length>...}.
+ * @author Leif Rogell
+ */
+final class ChunkCache {
+
+    /**
+     * One chunk of a file.
+     */
+    static final class Chunk {
+        private final String digest;
+        private final long offset;
+        private final int length;
+
+        Chunk(final String digest, final long offset, final int length) {
+            this.digest = digest;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        String getDigest() {
+            return digest;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * The chunks of one file as of a size and modification time.
+     */
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final List<Chunk> chunks;
+
+        Entry(final long size, final long modified, final List<Chunk> chunks) {
+            this.size = size;
+            this.modified = modified;
+            this.chunks = chunks;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> previous = new HashMap<>();
+    private final Map<String, Entry> current = new HashMap<>();
+
+    private ChunkCache(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the chunk cache of a temporary repository directory. An unreadable cache
+     * is treated as empty, so every file is chunked again.
+     * @param tmpRepoDir the temporary repository directory
+     * @return the cache
+     */
+    static ChunkCache load(final Path tmpRepoDir) {
+        ChunkCache cache = new ChunkCache(tmpRepoDir.resolve(AppConfig.CHUNK_CACHE_FILE));
+        try {
+            if (Files.exists(cache.file)) {
+                for (String line : Files.readAllLines(cache.file, StandardCharsets.UTF_8)) {
+                    String[] parts = line.split(AppConfig.SPACE_SEPARATOR);
+                    if (parts.length < 3) {
+                        continue;
+                    }
+                    List<Chunk> chunks = new ArrayList<>();
+                    for (int i = 3; i < parts.length; i++) {
+                        String[] chunk = parts[i].split(AppConfig.COLON_SEPARATOR);
+                        chunks.add(new Chunk(chunk[0], Long.parseLong(chunk[1]), Integer.parseInt(chunk[2])));
+                    }
+                    cache.previous.put(parts[2], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                                                           chunks));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            cache.previous.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the chunks recorded for a file if it is unchanged, and keeps them for
+     * the next cache.
+     * @param key the file's name in the manifest
+     * @param size the file's current size
+     * @param modified the file's current modification time in milliseconds
+     * @return the chunks, or null if the file is new or changed
+     */
+    List<Chunk> get(final String key, final long size, final long modified) {
+        Entry entry = previous.get(key);
+        if (entry == null || entry.size != size || entry.modified != modified) {
+            return null;
+        }
+        current.put(key, entry);
+        return entry.chunks;
+    }
+
+    /**
+     * Records the chunks of a file that was chunked again.
+     * @param key the file's name in the manifest
+     * @param size the file's size
+     * @param modified the file's modification time in milliseconds
+     * @param chunks the file's chunks
+     */
+    void put(final String key, final long size, final long modified, final List<Chunk> chunks) {
+        current.put(key, new Entry(size, modified, chunks));
+    }
+
+    /**
+     * Replaces the stored cache with the files of the current manifest; files gone
+     * from it are dropped.
+     * @throws IOException if the cache cannot be written
+     */
+    void save() throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), AppConfig.CHUNK_CACHE_FILE, null);
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : current.entrySet()) {
+                StringBuilder line = new StringBuilder()
+                    .append(entry.getValue().size).append(AppConfig.SPACE_SEPARATOR)
+                    .append(entry.getValue().modified).append(AppConfig.SPACE_SEPARATOR)
+                    .append(entry.getKey());
+                for (Chunk chunk : entry.getValue().chunks) {
+                    line.append(AppConfig.SPACE_SEPARATOR).append(chunk.digest)
+                        .append(AppConfig.COLON_SEPARATOR).append(chunk.offset)
+                        .append(AppConfig.COLON_SEPARATOR).append(chunk.length);
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,73 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent set of chunk digests already delivered to the ZK client for one repository.
+ * Stored as one hex digest per line in the repository's temporary directory and only
+ * ever appended to.
+ * @author Leif Rogell
+ */
+public final class ChunkIndex {
+
+    private final Path file;
+    private final Set<String> known = new HashSet<>();
+
+    private ChunkIndex(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the chunk index stored in a temporary repository directory.
+     * @param tmpRepoDir the temporary repository directory
+     * @return the loaded index, empty if none has been written yet
+     * @throws IOException if the index file exists but cannot be read
+     */
+    public static ChunkIndex load(final Path tmpRepoDir) throws IOException {
+        ChunkIndex index = new ChunkIndex(tmpRepoDir.resolve(AppConfig.CHUNK_INDEX_FILE));
+        if (Files.exists(index.file)) {
+            for (String line : Files.readAllLines(index.file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    index.known.add(line.trim());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Checks whether a chunk has already been delivered.
+     * @param digest the chunk's hex digest
+     * @return true if the chunk is known
+     */
+    public boolean contains(final String digest) {
+        return known.contains(digest);
+    }
+
+    /**
+     * Records chunks as delivered and appends them to the index file.
+     * @param digests the hex digests of the delivered chunks
+     * @throws IOException if the index file cannot be written
+     */
+    public void addAll(final Collection<String> digests) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (String digest : digests) {
+            if (known.add(digest)) {
+                lines.append(digest).append('\n');
+            }
+        }
+        if (lines.length() > 0) {
+            Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+}
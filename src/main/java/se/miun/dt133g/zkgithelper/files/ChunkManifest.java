@@ -0,0 +1,121 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.eclipse.jgit.util.Hex;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manifest of the content-defined chunks making up a payload handed to the ZK client.
+ * Each line reads {@code <new|known> <sha256> <file> <offset> <length>}, with files
+ * relative to the payload root the client is given, so the ZK client only needs to
+ * encrypt and upload new chunks. The manifest and its {@link ChunkCache} are kept in
+ * the temporary repository directory, and only files that are new or changed since
+ * the last manifest are read and chunked.
+ * @author Leif Rogell
+ */
+public final class ChunkManifest {
+
+    private final Path file;
+    private final Set<String> newChunks;
+
+    private ChunkManifest(final Path file, final Set<String> newChunks) {
+        this.file = file;
+        this.newChunks = newChunks;
+    }
+
+    /**
+     * Lists the object files of an objects directory, leaving out files still being written.
+     * @param objectsDir the objects directory
+     * @return the object files in name order
+     * @throws IOException if the directory cannot be walked
+     */
+    public static List<Path> objectFiles(final Path objectsDir) throws IOException {
+        try (Stream<Path> walk = Files.walk(objectsDir)) {
+            return walk.filter(Files::isRegularFile)
+                .filter(path -> !path.getFileName().toString().startsWith(AppConfig.TMP_OBJECT_PREFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Chunks the given files, such as the object files of a repository or a handoff
+     * bundle, and writes the manifest into the temporary repository directory.
+     * @param root the payload root the client is given; file names are relative to it
+     * @param files the files to chunk, inside the payload root
+     * @param tmpRepoDir the temporary repository directory
+     * @param index the index of chunks already delivered to the client
+     * @return the written manifest
+     * @throws IOException if a file cannot be read or the manifest cannot be written
+     */
+    public static ChunkManifest build(final Path root,
+                                      final List<Path> files,
+                                      final Path tmpRepoDir,
+                                      final ChunkIndex index) throws IOException {
+        Path manifestFile = tmpRepoDir.resolve(AppConfig.CHUNK_MANIFEST_FILE);
+        Set<String> newChunks = new LinkedHashSet<>();
+        ContentChunker chunker = new ContentChunker();
+        ChunkCache cache = ChunkCache.load(tmpRepoDir);
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestFile, StandardCharsets.UTF_8)) {
+            for (Path path : files) {
+                String relative = root.relativize(path).toString();
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                long modified = attributes.lastModifiedTime().toMillis();
+                List<ChunkCache.Chunk> chunks = cache.get(relative, attributes.size(), modified);
+                if (chunks == null) {
+                    List<ChunkCache.Chunk> split = new ArrayList<>();
+                    try (InputStream in = Files.newInputStream(path)) {
+                        chunker.split(in, (offset, length, digest) ->
+                                      split.add(new ChunkCache.Chunk(Hex.toHexString(digest), offset, length)));
+                    }
+                    cache.put(relative, attributes.size(), modified, split);
+                    chunks = split;
+                }
+                for (ChunkCache.Chunk chunk : chunks) {
+                    boolean known = index.contains(chunk.getDigest());
+                    if (!known) {
+                        newChunks.add(chunk.getDigest());
+                    }
+                    writer.write((known ? AppConfig.CHUNK_KNOWN : AppConfig.CHUNK_NEW)
+                                 + AppConfig.SPACE_SEPARATOR + chunk.getDigest()
+                                 + AppConfig.SPACE_SEPARATOR + relative
+                                 + AppConfig.SPACE_SEPARATOR + chunk.getOffset()
+                                 + AppConfig.SPACE_SEPARATOR + chunk.getLength());
+                    writer.newLine();
+                }
+            }
+        }
+        cache.save();
+        return new ChunkManifest(manifestFile, newChunks);
+    }
+
+    /**
+     * Returns the path of the written manifest file.
+     * @return the manifest file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the digests of chunks not yet known to the client.
+     * @return the new chunk digests in manifest order
+     */
+    public List<String> getNewChunks() {
+        return new ArrayList<>(newChunks);
+    }
+}
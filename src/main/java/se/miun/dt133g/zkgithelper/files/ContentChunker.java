@@ -0,0 +1,120 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+
+/**
+ * Splits a byte stream into content-defined chunks using a gear rolling hash
+ * with normalised chunking. Boundaries depend only on nearby content, so an
+ * insertion or change only alters the chunks around it. Each chunk is reported
+ * with its offset, length and SHA-256 digest; chunk data is never buffered.
+ * @author Leif Rogell
+ */
+public final class ContentChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(AppConfig.CHUNK_GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final long maskSmall;
+    private final long maskLarge;
+
+    /**
+     * Receives the chunks found by {@link #split}.
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+
+        /**
+         * Called once per chunk in stream order.
+         * @param offset the chunk's offset in the stream
+         * @param length the chunk's length in bytes
+         * @param digest the chunk's SHA-256 digest
+         * @throws IOException if the sink fails to record the chunk
+         */
+        void chunk(long offset, int length, byte[] digest) throws IOException;
+    }
+
+    /**
+     * Creates a chunker targeting the configured average chunk size.
+     */
+    public ContentChunker() {
+        int bits = Integer.numberOfTrailingZeros(AppConfig.CHUNK_AVG_SIZE);
+        this.maskSmall = (1L << (bits + 2)) - 1 << (Long.SIZE - bits - 2);
+        this.maskLarge = (1L << (bits - 2)) - 1 << (Long.SIZE - bits + 2);
+    }
+
+    /**
+     * Reads the stream to its end and reports every chunk to the sink.
+     * @param in the stream to split
+     * @param sink the receiver of chunk boundaries and digests
+     * @throws IOException if reading the stream or the sink fails
+     */
+    public void split(final InputStream in, final ChunkSink sink) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[AppConfig.CHUNK_READ_BUFFER];
+        long offset = 0;
+        int length = 0;
+        long hash = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                length++;
+                if (isBoundary(hash, length)) {
+                    digest.update(buffer, start, i + 1 - start);
+                    sink.chunk(offset, length, digest.digest());
+                    offset += length;
+                    length = 0;
+                    hash = 0;
+                    start = i + 1;
+                }
+            }
+            digest.update(buffer, start, read - start);
+        }
+        if (length > 0) {
+            sink.chunk(offset, length, digest.digest());
+        }
+    }
+
+    /**
+     * Decides whether the current position ends a chunk. Below the average size a
+     * stricter mask is used and above it a looser one, which narrows the size spread.
+     * @param hash the current rolling hash
+     * @param length the current chunk length
+     * @return true if the chunk ends here
+     */
+    private boolean isBoundary(final long hash, final int length) {
+        if (length < AppConfig.CHUNK_MIN_SIZE) {
+            return false;
+        }
+        if (length >= AppConfig.CHUNK_MAX_SIZE) {
+            return true;
+        }
+        long mask = length < AppConfig.CHUNK_AVG_SIZE ? maskSmall : maskLarge;
+        return (hash & mask) == 0;
+    }
+
+    /**
+     * Creates the SHA-256 digest used for chunk identities.
+     * @return a new message digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(AppConfig.CHUNK_DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package se.miun.dt133g.zkgithelper.files;
 
-import se.miun.dt133g.zkgithelper.support.IoUtils;
 import se.miun.dt133g.zkgithelper.support.AppConfig;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 /**
  * Utility class for handling file system operations such as creating temporary directories.
+ * Temporary directories are placed and size-bounded by the {@link CacheManager}.
  * @author Leif Rogell
  */
 public final class FileUtils {
@@ -19,26 +18,19 @@ public final class FileUtils {
     private FileUtils() { }
 
     /**
-     * Creates a temporary directory for the given repository name in the system temp path.
+     * Creates a temporary directory for the given repository name under the cache root.
+     * Records the access; the handler using the directory pins it and evicts other caches.
      * @param repoName the name of the repository
-     * @return the full path to the created directory, or null if creation fails
+     * @return the full path to the created directory
+     * @throws IOException if the directory cannot be created; the caller decides
+     *         whether that ends its session
      */
-    public String createTmpDirectory(final String repoName) {
-        try {
+    public String createTmpDirectory(final String repoName) throws IOException {
+        Path tmpDir = CacheManager.INSTANCE.getRoot().resolve(AppConfig.TMP_PREFIX
+                                                              + repoName);
 
-            Path tmpDir = Paths.get(System.getProperty(AppConfig.JAVA_TMP),
-                                    AppConfig.TMP_PREFIX
-                                    + repoName);
-
-            if (!Files.exists(tmpDir)) {
-                Files.createDirectory(tmpDir);
-            }
-            return tmpDir.toString();
-        } catch (IOException e) {
-            IoUtils.INSTANCE.fatal(AppConfig.ERROR_CREATE_TMP_DIRECTORY
-                                   + e.getMessage()
-                                   + AppConfig.NEW_LINE);
-            return null;
-        }
+        Files.createDirectories(tmpDir);
+        CacheManager.INSTANCE.touch(tmpDir);
+        return tmpDir.toString();
     }
 }
@@ -0,0 +1,191 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream decompressing the gzip members written by {@link ParallelGzipOutputStream}
+ * in parallel. Member sizes are read from the header extra field, so members are read
+ * ahead and inflated on the executor while earlier data is being consumed.
+ * @author Leif Rogell
+ */
+public final class ParallelGzipInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean endOfInput;
+
+    /**
+     * Creates a stream decompressing on the given executor.
+     * @param in the stream of gzip members
+     * @param executor the executor running the block decompression tasks
+     * @param threads the number of threads available on the executor
+     */
+    public ParallelGzipInputStream(final InputStream in,
+                                   final ExecutorService executor,
+                                   final int threads) {
+        this.in = new DataInputStream(in);
+        this.executor = executor;
+        this.window = Math.max(2, threads * 2);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (position == current.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        in.close();
+    }
+
+    /**
+     * Tops up the read-ahead window and moves to the next decompressed block.
+     * @return false at the end of the input
+     * @throws IOException if a member is malformed or fails to decompress
+     */
+    private boolean nextBlock() throws IOException {
+        while (!endOfInput && pending.size() < window) {
+            byte[] member = readMember();
+            if (member == null) {
+                endOfInput = true;
+            } else {
+                pending.add(executor.submit(() -> inflateMember(member)));
+            }
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        try {
+            current = pending.removeFirst().get();
+            position = 0;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+        } catch (ExecutionException e) {
+            throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Reads the raw bytes of the next member, using the size stored in its header.
+     * @return the member bytes, or null at the end of the input
+     * @throws IOException if the member header is not in the expected format
+     */
+    private byte[] readMember() throws IOException {
+        byte[] member;
+        byte[] header = new byte[AppConfig.GZIP_HEADER_SIZE];
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        header[0] = (byte) first;
+        try {
+            in.readFully(header, 1, header.length - 1);
+        } catch (EOFException e) {
+            throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + "truncated member header", e);
+        }
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b
+            || header[12] != AppConfig.GZIP_EXTRA_ID1 || header[13] != AppConfig.GZIP_EXTRA_ID2) {
+            throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + "unexpected member header");
+        }
+        int size = readIntLe(header, 16);
+        if (size < AppConfig.GZIP_HEADER_SIZE + AppConfig.GZIP_TRAILER_SIZE) {
+            throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + "invalid member size " + size);
+        }
+        member = new byte[size];
+        System.arraycopy(header, 0, member, 0, header.length);
+        in.readFully(member, header.length, size - header.length);
+        return member;
+    }
+
+    /**
+     * Inflates one member and checks its length and CRC.
+     * @param member the complete member bytes
+     * @return the decompressed block
+     * @throws IOException if the member is corrupt
+     */
+    private static byte[] inflateMember(final byte[] member) throws IOException {
+        int trailer = member.length - AppConfig.GZIP_TRAILER_SIZE;
+        int expectedCrc = readIntLe(member, trailer);
+        int size = readIntLe(member, trailer + 4);
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, AppConfig.GZIP_HEADER_SIZE, trailer - AppConfig.GZIP_HEADER_SIZE);
+            int total = 0;
+            while (total < size && !inflater.finished()) {
+                int n = inflater.inflate(data, total, size - total);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                total += n;
+            }
+            if (total != size) {
+                throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + "member size mismatch");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, size);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException(AppConfig.ERROR_DECOMPRESSING_FAILED + "CRC mismatch");
+        }
+        return data;
+    }
+
+    /**
+     * Reads a 32-bit little-endian integer from a buffer.
+     * @param bytes the buffer
+     * @param offset the offset of the integer
+     * @return the value read
+     */
+    private static int readIntLe(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff)
+            | (bytes[offset + 1] & 0xff) << 8
+            | (bytes[offset + 2] & 0xff) << 16
+            | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
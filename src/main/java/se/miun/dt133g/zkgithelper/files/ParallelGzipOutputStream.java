@@ -0,0 +1,199 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream compressing fixed-size blocks in parallel, pigz style.
+ * Every block becomes an independent gzip member carrying its own compressed size
+ * in a header extra field, so the output is a valid multi-member gzip file that
+ * {@link ParallelGzipInputStream} can also decompress in parallel. Blocks of data
+ * marked as incompressible are stored rather than deflated, and a block may be ended
+ * early with {@link #endBlock()}.
+ * @author Leif Rogell
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[AppConfig.COMPRESS_BLOCK_SIZE];
+    private int blockLength;
+    private boolean compressible = true;
+
+    /**
+     * Creates a stream compressing on the given executor.
+     * @param out the stream receiving the gzip members in order
+     * @param executor the executor running the block compression tasks
+     * @param threads the number of threads available on the executor
+     */
+    public ParallelGzipOutputStream(final OutputStream out,
+                                    final ExecutorService executor,
+                                    final int threads) {
+        this.out = out;
+        this.executor = executor;
+        this.window = Math.max(2, threads * 2);
+    }
+
+    /**
+     * Marks whether the following data is worth deflating. Changing the flag ends the
+     * current block, so no block mixes compressible and incompressible data.
+     * @param value false for already-compressed data such as pack files
+     * @throws IOException if a finished block cannot be written
+     */
+    public void setCompressible(final boolean value) throws IOException {
+        if (value != compressible) {
+            endBlock();
+        }
+        compressible = value;
+    }
+
+    /**
+     * Ends the current block, so the data written next starts a new gzip member. A
+     * writer ending blocks where its records end gets identical members for an
+     * unchanged record, whatever changed in the data before it.
+     * @throws IOException if a finished block cannot be written
+     */
+    public void endBlock() throws IOException {
+        if (blockLength > 0) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] data, final int offset, final int length) throws IOException {
+        int off = offset;
+        int remaining = length;
+        while (remaining > 0) {
+            int n = Math.min(remaining, block.length - blockLength);
+            System.arraycopy(data, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            remaining -= n;
+            if (blockLength == block.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockLength > 0) {
+                submitBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Hands the current block to the executor and starts a new one, writing finished
+     * members first if the window of blocks in flight is full.
+     * @throws IOException if a finished member cannot be written
+     */
+    private void submitBlock() throws IOException {
+        while (pending.size() >= window) {
+            writeNext();
+        }
+        byte[] data = block;
+        int length = blockLength;
+        int level = compressible ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION;
+        pending.add(executor.submit(() -> compressMember(data, length, level)));
+        block = new byte[AppConfig.COMPRESS_BLOCK_SIZE];
+        blockLength = 0;
+    }
+
+    /**
+     * Waits for the oldest block in flight and writes its member.
+     * @throws IOException if compression failed or the member cannot be written
+     */
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+        } catch (ExecutionException e) {
+            throw new IOException(AppConfig.ERROR_COMPRESSING_FAILED + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Compresses one block into a complete gzip member.
+     * @param data the block buffer
+     * @param length the number of bytes used in the buffer
+     * @param level the deflate level
+     * @return the encoded member
+     */
+    private static byte[] compressMember(final byte[] data, final int length, final int level) {
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + AppConfig.GZIP_HEADER_SIZE);
+        try {
+            member.write(new byte[AppConfig.GZIP_HEADER_SIZE], 0, AppConfig.GZIP_HEADER_SIZE);
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[AppConfig.COMPRESS_BLOCK_SIZE / 4];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                member.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLe(member, (int) crc.getValue());
+        writeIntLe(member, length);
+
+        byte[] bytes = member.toByteArray();
+        writeHeader(bytes, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Fills in the gzip member header, including the extra field holding the member size.
+     * @param bytes the member buffer whose first bytes are reserved for the header
+     * @param memberSize the total member size in bytes
+     */
+    private static void writeHeader(final byte[] bytes, final int memberSize) {
+        byte[] header = {
+            (byte) 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff,
+            8, 0, AppConfig.GZIP_EXTRA_ID1, AppConfig.GZIP_EXTRA_ID2, 4, 0,
+            (byte) memberSize, (byte) (memberSize >>> 8), (byte) (memberSize >>> 16), (byte) (memberSize >>> 24)
+        };
+        System.arraycopy(header, 0, bytes, 0, header.length);
+    }
+
+    /**
+     * Writes a 32-bit little-endian integer.
+     * @param out the stream to write to
+     * @param value the value to write
+     */
+    private static void writeIntLe(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
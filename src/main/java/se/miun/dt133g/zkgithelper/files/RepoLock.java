@@ -0,0 +1,249 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Reader/writer lock on a temporary repository directory, shared between threads
+ * and between helper processes. Threads are coordinated by a read/write lock and
+ * processes by an OS file lock on a lock file inside the directory, so concurrent
+ * readers proceed in parallel while writers get exclusive access.
+ * @author Leif Rogell
+ */
+public final class RepoLock {
+
+    private static final ConcurrentMap<Path, RepoLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path lockFile;
+    private final ReentrantReadWriteLock threadLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private Object channelKey;
+    private FileLock fileLock;
+    private int readers;
+
+    /**
+     * Handle to a held lock, released by {@link #close()}.
+     */
+    public interface Lease extends AutoCloseable {
+
+        /**
+         * Releases the lock.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Work run while the lock is held.
+     * @param <T> the type of the work's result
+     */
+    @FunctionalInterface
+    public interface Action<T> {
+
+        /**
+         * Runs the work.
+         * @return the result, null for work without one
+         * @throws IOException if the work fails
+         */
+        T run() throws IOException;
+    }
+
+    private RepoLock(final Path directory) {
+        this.lockFile = directory.resolve(AppConfig.LOCK_FILE_NAME);
+    }
+
+    /**
+     * Returns the lock guarding the given repository directory.
+     * @param directory the temporary repository directory
+     * @return the lock shared by all callers for that directory
+     */
+    public static RepoLock forDirectory(final Path directory) {
+        return LOCKS.computeIfAbsent(directory.toAbsolutePath().normalize(), RepoLock::new);
+    }
+
+    /**
+     * Forgets the lock of a directory that was removed, closing its lock file channel
+     * unless the lock is held.
+     * @param directory the removed directory
+     */
+    public static void discard(final Path directory) {
+        RepoLock lock = LOCKS.remove(directory.toAbsolutePath().normalize());
+        if (lock != null) {
+            synchronized (lock) {
+                if (lock.fileLock == null && lock.channel != null) {
+                    try {
+                        lock.channel.close();
+                    } catch (IOException e) {
+                        IoUtils.INSTANCE.trace(AppConfig.ERROR_RELEASE_LOCK + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquires the lock for reading; other readers may hold it at the same time.
+     * @return a lease that releases the lock when closed
+     * @throws IOException if the lock file cannot be locked
+     */
+    public Lease shared() throws IOException {
+        threadLock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (readers == 0) {
+                    fileLock = openChannel().lock(0, Long.MAX_VALUE, true);
+                }
+                readers++;
+            }
+        } catch (IOException e) {
+            threadLock.readLock().unlock();
+            throw e;
+        }
+        return () -> {
+            synchronized (this) {
+                if (--readers == 0) {
+                    releaseFileLock();
+                }
+            }
+            threadLock.readLock().unlock();
+        };
+    }
+
+    /**
+     * Acquires the lock for writing, waiting for all readers and writers to finish.
+     * @return a lease that releases the lock when closed
+     * @throws IOException if the lock file cannot be locked
+     */
+    public Lease exclusive() throws IOException {
+        threadLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                fileLock = openChannel().lock(0, Long.MAX_VALUE, false);
+            }
+        } catch (IOException e) {
+            threadLock.writeLock().unlock();
+            throw e;
+        }
+        return () -> {
+            synchronized (this) {
+                releaseFileLock();
+            }
+            threadLock.writeLock().unlock();
+        };
+    }
+
+    /**
+     * Tries to acquire the lock for writing without waiting.
+     * @return a lease that releases the lock when closed, or null if the lock is busy
+     * @throws IOException if the lock file cannot be opened
+     */
+    public Lease tryExclusive() throws IOException {
+        if (!threadLock.writeLock().tryLock()) {
+            return null;
+        }
+        synchronized (this) {
+            fileLock = openChannel().tryLock(0, Long.MAX_VALUE, false);
+            if (fileLock == null) {
+                threadLock.writeLock().unlock();
+                return null;
+            }
+        }
+        return () -> {
+            synchronized (this) {
+                releaseFileLock();
+            }
+            threadLock.writeLock().unlock();
+        };
+    }
+
+    /**
+     * Runs work while holding the lock for reading.
+     * @param action the work
+     * @param <T> the type of the work's result
+     * @return the work's result
+     * @throws IOException if the lock cannot be acquired or the work fails
+     */
+    public <T> T withShared(final Action<T> action) throws IOException {
+        Lease lease = shared();
+        try {
+            return action.run();
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Runs work while holding the lock for writing.
+     * @param action the work
+     * @param <T> the type of the work's result
+     * @return the work's result
+     * @throws IOException if the lock cannot be acquired or the work fails
+     */
+    public <T> T withExclusive(final Action<T> action) throws IOException {
+        Lease lease = exclusive();
+        try {
+            return action.run();
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Opens the lock file channel if it is not already open, or reopens it if the lock
+     * file was replaced since, as when its directory was evicted and created again.
+     * @return the open channel
+     * @throws IOException if the lock file cannot be created or opened
+     */
+    private FileChannel openChannel() throws IOException {
+        if (channel != null && channel.isOpen() && (fileLock != null || channelKey.equals(fileKey()))) {
+            return channel;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        channelKey = fileKey();
+        return channel;
+    }
+
+    /**
+     * Returns the identity of the lock file currently at its path.
+     * @return the file key, or a new object never equal to another if there is none
+     * @throws IOException if the file attributes cannot be read
+     */
+    private Object fileKey() throws IOException {
+        try {
+            Object key = Files.readAttributes(lockFile, BasicFileAttributes.class).fileKey();
+            return key != null ? key : lockFile;
+        } catch (NoSuchFileException e) {
+            return new Object();
+        }
+    }
+
+    /**
+     * Releases the OS file lock, logging rather than propagating failures.
+     */
+    private void releaseFileLock() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_RELEASE_LOCK + e.getMessage());
+        }
+    }
+}
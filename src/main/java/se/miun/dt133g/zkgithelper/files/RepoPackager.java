@@ -0,0 +1,150 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.Settings;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Singleton packaging the staged temporary repository into a single compressed payload
+ * file, and unpacking payloads received from the ZK client. Compression and
+ * decompression run block-parallel across all cores; pack files, which are already
+ * zlib-compressed, are stored instead of deflated again.
+ * @author Leif Rogell
+ */
+public final class RepoPackager {
+
+    public static final RepoPackager INSTANCE = new RepoPackager();
+
+    private RepoPackager() { }
+
+    /**
+     * Packages all repository files of a temporary repository into its payload file.
+     * Helper metadata files (prefixed {@code zkgit}) and temporary object files are left out.
+     * Every file starts a new gzip member, so the members of unchanged files stay
+     * byte-identical and content-defined chunking of the payload finds them again
+     * however much the files before them changed.
+     * @param repoDir the temporary repository directory
+     * @return the path of the written payload file
+     * @throws IOException if a file cannot be read or the payload cannot be written
+     */
+    public Path pack(final Path repoDir) throws IOException {
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_COMPRESSING_START);
+        Path archive = repoDir.resolve(AppConfig.PAYLOAD_FILE);
+        Path tmpArchive = Files.createTempFile(repoDir, AppConfig.PAYLOAD_FILE, null);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(repoDir)) {
+            files = walk.filter(Files::isRegularFile)
+                .filter(path -> isRepositoryFile(repoDir, path))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(tmpArchive)),
+                 SharedExecutor.INSTANCE.cpuExecutor(), SharedExecutor.INSTANCE.limit(SharedExecutor.Resource.CPU));
+             DataOutputStream out = new DataOutputStream(gzip)) {
+            out.writeUTF(AppConfig.PAYLOAD_MAGIC);
+            for (Path file : files) {
+                out.writeUTF(repoDir.relativize(file).toString().replace('\\', '/'));
+                out.writeLong(Files.size(file));
+                gzip.setCompressible(!file.getFileName().toString().endsWith(AppConfig.PACK_SUFFIX));
+                Files.copy(file, out);
+                gzip.setCompressible(true);
+                gzip.endBlock();
+            }
+            out.writeUTF(AppConfig.GIT_END);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpArchive);
+            throw e;
+        }
+        Files.move(tmpArchive, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_COMPRESSING_FINISH);
+        return archive;
+    }
+
+    /**
+     * Unpacks a payload file into a temporary repository directory, replacing each file
+     * atomically so concurrent readers never see a partial file.
+     * @param archive the payload file to unpack
+     * @param repoDir the temporary repository directory
+     * @throws IOException if the payload is malformed or a file cannot be written
+     */
+    public void unpack(final Path archive, final Path repoDir) throws IOException {
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_DECOMPRESSING_START);
+        Path root = repoDir.toAbsolutePath().normalize();
+        try (DataInputStream in = new DataInputStream(new ParallelGzipInputStream(
+                 new BufferedInputStream(Files.newInputStream(archive)),
+                 SharedExecutor.INSTANCE.cpuExecutor(), SharedExecutor.INSTANCE.limit(SharedExecutor.Resource.CPU)))) {
+            if (!AppConfig.PAYLOAD_MAGIC.equals(in.readUTF())) {
+                throw new IOException(AppConfig.ERROR_UNEXPECTED_FILE_FORMAT + archive);
+            }
+            String name;
+            while (!(name = in.readUTF()).equals(AppConfig.GIT_END)) {
+                long size = in.readLong();
+                Path target = root.resolve(name).normalize();
+                if (!target.startsWith(root)) {
+                    throw new IOException(AppConfig.ERROR_UNEXPECTED_FILE_FORMAT + name);
+                }
+                Files.createDirectories(target.getParent());
+                Path tmpFile = Files.createTempFile(target.getParent(), AppConfig.TMP_OBJECT_PREFIX, null);
+                try {
+                    try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                        copy(in, out, size);
+                    }
+                    Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmpFile);
+                }
+            }
+        }
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_DECOMPRESSING_FINISH);
+    }
+
+    /**
+     * Checks whether a file belongs to the Git repository rather than to the helper.
+     * @param repoDir the temporary repository directory
+     * @param path the file to check
+     * @return true if the file should be packaged
+     */
+    private boolean isRepositoryFile(final Path repoDir, final Path path) {
+        String name = path.getFileName().toString();
+        return !repoDir.relativize(path).toString().startsWith(AppConfig.ZKGIT_FILE_PREFIX)
+            && !name.startsWith(AppConfig.TMP_OBJECT_PREFIX);
+    }
+
+    /**
+     * Copies exactly the given number of bytes from one stream to another.
+     * @param in the source stream
+     * @param out the target stream
+     * @param size the number of bytes to copy
+     * @throws IOException if the source ends early or a stream fails
+     */
+    private void copy(final InputStream in, final OutputStream out, final long size) throws IOException {
+        byte[] buffer = new byte[Settings.INSTANCE.getBufferSize()];
+        long remaining = size;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new IOException(AppConfig.ERROR_UNEXPECTED_FILE_FORMAT + "truncated payload");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+}
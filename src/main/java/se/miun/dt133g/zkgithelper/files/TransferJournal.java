@@ -0,0 +1,202 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.StripedLock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Checkpoint journal of push and fetch transfers for one temporary repository.
+ * Each completed stage of a transfer is appended as {@code <millis> <stage> <key> [detail]}
+ * and synced to disk, so a command retried after an interruption can skip the stages
+ * it already finished. Only records younger than the resume window are honoured.
+ * Journal failures are traced and never fail a transfer.
+ * @author Leif Rogell
+ */
+public final class TransferJournal {
+
+    private static final StripedLock FILE_LOCKS = new StripedLock(AppConfig.LOCK_STRIPES);
+
+    /**
+     * A change to the locked journal file.
+     */
+    private interface Change {
+        /**
+         * Makes the change.
+         * @param channel the journal file's channel
+         * @throws IOException if the file cannot be read or written
+         */
+        void apply(FileChannel channel) throws IOException;
+    }
+
+    private final Path file;
+    private final Map<String, String> records = new LinkedHashMap<>();
+    private final Map<String, Long> times = new LinkedHashMap<>();
+
+    private TransferJournal(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal stored in a temporary repository directory.
+     * @param tmpRepoDir the temporary repository directory
+     * @return the journal, empty if none has been written yet or it cannot be read
+     */
+    public static TransferJournal open(final Path tmpRepoDir) {
+        TransferJournal journal = new TransferJournal(tmpRepoDir.resolve(AppConfig.JOURNAL_FILE));
+        if (Files.exists(journal.file)) {
+            try {
+                for (String line : Files.readAllLines(journal.file, StandardCharsets.UTF_8)) {
+                    journal.load(line);
+                }
+            } catch (IOException e) {
+                IoUtils.INSTANCE.trace(AppConfig.ERROR_JOURNAL + e.getMessage());
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Checks whether a transfer recently completed a stage.
+     * @param key the transfer key
+     * @param stage the stage name
+     * @return true if the stage was recorded within the resume window
+     */
+    public synchronized boolean isDone(final String key, final String stage) {
+        return detail(key, stage) != null;
+    }
+
+    /**
+     * Returns the detail recorded with a stage, such as a file path or byte offset.
+     * @param key the transfer key
+     * @param stage the stage name
+     * @return the detail, empty if none was recorded, or null if the stage is not done
+     */
+    public synchronized String detail(final String key, final String stage) {
+        String id = stage + AppConfig.SPACE_SEPARATOR + key;
+        Long time = times.get(id);
+        if (time == null || System.currentTimeMillis() - time > AppConfig.JOURNAL_RESUME_WINDOW_MILLIS) {
+            return null;
+        }
+        return records.get(id);
+    }
+
+    /**
+     * Records a completed stage and syncs it to disk.
+     * @param key the transfer key, without spaces
+     * @param stage the stage name
+     * @param detail the detail to keep with the stage, or null
+     */
+    public synchronized void record(final String key, final String stage, final String detail) {
+        String line = System.currentTimeMillis() + AppConfig.SPACE_SEPARATOR + stage
+            + AppConfig.SPACE_SEPARATOR + key
+            + (detail != null ? AppConfig.SPACE_SEPARATOR + detail : "") + "\n";
+        load(line.trim());
+        try {
+            update(channel -> {
+                    channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)), channel.size());
+                    channel.force(false);
+                });
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_JOURNAL + e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets every stage of a finished or abandoned transfer and compacts the journal
+     * file, dropping records that have outlived the resume window as well. The file is
+     * read again under its lock first, so stages other helpers recorded meanwhile for
+     * other transfers are kept.
+     * @param key the transfer key
+     */
+    public synchronized void complete(final String key) {
+        String suffix = AppConfig.SPACE_SEPARATOR + key;
+        long oldest = System.currentTimeMillis() - AppConfig.JOURNAL_RESUME_WINDOW_MILLIS;
+        try {
+            update(channel -> {
+                    ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+                    while (content.hasRemaining()) {
+                        if (channel.read(content, content.position()) <= 0) {
+                            break;
+                        }
+                    }
+                    times.clear();
+                    records.clear();
+                    for (String line : new String(content.array(), 0, content.position(),
+                                                  StandardCharsets.UTF_8).split("\n")) {
+                        load(line);
+                    }
+                    if (!times.keySet().removeIf(id -> id.endsWith(suffix) || times.get(id) < oldest)) {
+                        return;
+                    }
+                    records.keySet().retainAll(times.keySet());
+                    StringBuilder lines = new StringBuilder();
+                    for (Map.Entry<String, String> entry : records.entrySet()) {
+                        lines.append(times.get(entry.getKey())).append(AppConfig.SPACE_SEPARATOR)
+                            .append(entry.getKey());
+                        if (!entry.getValue().isEmpty()) {
+                            lines.append(AppConfig.SPACE_SEPARATOR).append(entry.getValue());
+                        }
+                        lines.append('\n');
+                    }
+                    channel.truncate(0);
+                    channel.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)), 0);
+                    channel.force(false);
+                });
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_JOURNAL + e.getMessage());
+        }
+    }
+
+    /**
+     * Changes the journal file while holding it exclusively, against other journals of
+     * this process through a striped lock and against other processes through a file
+     * lock. The file is changed in place, so every helper locks the same file.
+     * @param change the change to make through the file's channel
+     * @throws IOException if the file cannot be locked or changed
+     */
+    private void update(final Change change) throws IOException {
+        ReentrantLock lock = FILE_LOCKS.lockFor(file.toString());
+        lock.lock();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock fileLock = channel.lock();
+            try {
+                change.apply(channel);
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Parses one journal line, keeping the latest record of each stage.
+     * @param line the line to parse
+     */
+    private void load(final String line) {
+        String[] parts = line.split(AppConfig.SPACE_SEPARATOR, 4);
+        if (parts.length < 3) {
+            return;
+        }
+        try {
+            String id = parts[1] + AppConfig.SPACE_SEPARATOR + parts[2];
+            times.put(id, Long.parseLong(parts[0]));
+            records.put(id, parts.length == 4 ? parts[3] : "");
+        } catch (NumberFormatException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_JOURNAL + line);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the last repository state the ZK client confirmed, so a list repeated
+ * within the time-to-live is answered without contacting the client. Each scope, such
+ * as fetch or push, keeps one {@code <millis> <scope> <state>} line in the temporary
+ * repository directory. Any change that may make the client's copy differ must call
+ * {@link #invalidate()}. Cache failures are traced and only cost a round trip.
+ * @author Leif Rogell
+ */
+public final class UpToDateCache {
+
+    private final Path file;
+    private final long ttlMillis;
+    private final Map<String, String> states = new LinkedHashMap<>();
+    private final Map<String, Long> times = new LinkedHashMap<>();
+
+    private UpToDateCache(final Path file, final long ttlMillis) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Opens the cache stored in a temporary repository directory.
+     * @param tmpRepoDir the temporary repository directory
+     * @param ttlMillis how long a confirmation is trusted, 0 to disable the cache
+     * @return the cache, empty if none has been written yet or it cannot be read
+     */
+    public static UpToDateCache open(final Path tmpRepoDir, final long ttlMillis) {
+        UpToDateCache cache = new UpToDateCache(tmpRepoDir.resolve(AppConfig.UPTODATE_FILE), ttlMillis);
+        if (ttlMillis > 0 && Files.exists(cache.file)) {
+            try {
+                for (String line : Files.readAllLines(cache.file, StandardCharsets.UTF_8)) {
+                    String[] parts = line.split(AppConfig.SPACE_SEPARATOR);
+                    if (parts.length == 3) {
+                        cache.times.put(parts[1], Long.parseLong(parts[0]));
+                        cache.states.put(parts[1], parts[2]);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                IoUtils.INSTANCE.trace(AppConfig.ERROR_UPTODATE_CACHE + e.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Checks whether the client recently confirmed a state.
+     * @param scope the scope, without spaces
+     * @param state the current state, without spaces
+     * @return true if the same state was confirmed within the time-to-live
+     */
+    public synchronized boolean isFresh(final String scope, final String state) {
+        Long time = times.get(scope);
+        return time != null
+            && state.equals(states.get(scope))
+            && System.currentTimeMillis() - time <= ttlMillis;
+    }
+
+    /**
+     * Records that the client confirmed a state.
+     * @param scope the scope, without spaces
+     * @param state the confirmed state, without spaces
+     */
+    public synchronized void confirm(final String scope, final String state) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        times.put(scope, System.currentTimeMillis());
+        states.put(scope, state);
+        save();
+    }
+
+    /**
+     * Forgets every confirmation, so the next list contacts the client.
+     */
+    public synchronized void invalidate() {
+        if (states.isEmpty() && !Files.exists(file)) {
+            return;
+        }
+        states.clear();
+        times.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_UPTODATE_CACHE + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the confirmations to the cache file.
+     */
+    private void save() {
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, String> entry : states.entrySet()) {
+            lines.append(times.get(entry.getKey())).append(AppConfig.SPACE_SEPARATOR)
+                .append(entry.getKey()).append(AppConfig.SPACE_SEPARATOR)
+                .append(entry.getValue()).append('\n');
+        }
+        try {
+            Path tmpFile = Files.createTempFile(file.getParent(), AppConfig.UPTODATE_FILE, null);
+            Files.write(tmpFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_UPTODATE_CACHE + e.getMessage());
+        }
+    }
+}
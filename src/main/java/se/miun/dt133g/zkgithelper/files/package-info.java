@@ -3,6 +3,11 @@
  *
  * <p>This package includes the {@link se.miun.dt133g.zkgithelper.files.FileUtils} class,
  * which contains methods for managing temporary directories, such as creating directories
- * for storing repository-related files.</p>
+ * for storing repository-related files. The {@link se.miun.dt133g.zkgithelper.files.CacheManager}
+ * bounds the total size of those directories, and {@link se.miun.dt133g.zkgithelper.files.RepoLock}
+ * coordinates helper processes sharing one of them. The
+ * {@link se.miun.dt133g.zkgithelper.files.TransferJournal} checkpoints transfers so interrupted
+ * commands resume, and the
+ * {@link se.miun.dt133g.zkgithelper.files.UpToDateCache} lets repeated lists skip the client.</p>
  */
 package se.miun.dt133g.zkgithelper.files;
@@ -0,0 +1,185 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.jgit.transport.RefSpec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands the temporary repository to the ZK client as a single git bundle file.
+ * The first bundle is complete; later bundles are incremental, listing the tips
+ * of the last accepted bundle as prerequisites so each push only carries its
+ * own changes. Bundles delivered by the client are fetched into the repository.
+ * @author Leif Rogell
+ */
+public final class BundleHandoff {
+
+    private final Repository repository;
+    private final Path directory;
+
+    /**
+     * Creates a handoff for a temporary repository.
+     * @param repository the temporary bare repository
+     * @param directory the temporary repository directory holding bundle files
+     */
+    public BundleHandoff(final Repository repository, final Path directory) {
+        this.repository = repository;
+        this.directory = directory;
+    }
+
+    /**
+     * Writes a bundle of all branches and tags, incremental relative to the tips of the
+     * last bundle the client accepted.
+     * @return the path of the written bundle
+     * @throws IOException if the repository cannot be read or the bundle cannot be written
+     */
+    public Path writeBundle() throws IOException {
+        Path bundle = directory.resolve(AppConfig.BUNDLE_FILE);
+        Path tmpBundle = Files.createTempFile(directory, AppConfig.BUNDLE_FILE, null);
+        BundleWriter writer = new BundleWriter(repository);
+        for (Ref ref : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS, Constants.R_TAGS)) {
+            if (ref.getObjectId() != null) {
+                writer.include(ref.getName(), ref.getObjectId());
+            }
+        }
+        try (RevWalk walk = new RevWalk(repository)) {
+            for (ObjectId tip : readTips()) {
+                if (!repository.getObjectDatabase().has(tip)) {
+                    continue;
+                }
+                RevObject object = walk.peel(walk.parseAny(tip));
+                if (object instanceof RevCommit) {
+                    writer.assume((RevCommit) object);
+                }
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpBundle))) {
+            writer.writeBundle(NullProgressMonitor.INSTANCE, out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpBundle);
+            throw e;
+        }
+        Files.move(tmpBundle, bundle, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bundle;
+    }
+
+    /**
+     * Reads the tips a bundle written by {@link #writeBundle()} carries, from its header.
+     * These are exactly the branches and tags the client holds once it accepts the bundle.
+     * @param bundle the bundle file
+     * @return the IDs of the bundle's refs
+     * @throws IOException if the bundle cannot be read
+     */
+    public static List<ObjectId> readBundleTips(final Path bundle) throws IOException {
+        List<ObjectId> tips = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(bundle))) {
+            readHeaderLine(in);
+            for (String line = readHeaderLine(in); !line.isEmpty(); line = readHeaderLine(in)) {
+                if (line.length() >= Constants.OBJECT_ID_STRING_LENGTH
+                    && ObjectId.isId(line.substring(0, Constants.OBJECT_ID_STRING_LENGTH))) {
+                    tips.add(ObjectId.fromString(line.substring(0, Constants.OBJECT_ID_STRING_LENGTH)));
+                }
+            }
+        }
+        return tips;
+    }
+
+    /**
+     * Records the tips of an accepted bundle as the base for the next incremental bundle,
+     * replacing those of the previous one, so deleted refs are dropped. Called once the
+     * client has accepted the bundle the tips were read from.
+     * @param tips the tips read by {@link #readBundleTips(Path)}
+     * @throws IOException if the tips cannot be written
+     */
+    public void recordTips(final List<ObjectId> tips) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (ObjectId tip : tips) {
+            lines.append(tip.name()).append('\n');
+        }
+        Path file = directory.resolve(AppConfig.BUNDLE_TIPS_FILE);
+        Path tmp = Files.createTempFile(directory, AppConfig.BUNDLE_TIPS_FILE, null);
+        Files.write(tmp, lines.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Fetches all refs of a bundle delivered by the client into the repository and
+     * removes the bundle afterwards. The repository must already contain the bundle's
+     * prerequisites.
+     * @param bundle the bundle file to apply
+     * @throws IOException if the bundle cannot be read or its prerequisites are missing
+     */
+    public void applyBundle(final Path bundle) throws IOException {
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_APPLYING_BUNDLE + bundle);
+        try {
+            Git.wrap(repository).fetch()
+                .setRemote(bundle.toAbsolutePath().toString())
+                .setRefSpecs(new RefSpec(AppConfig.BUNDLE_REFSPEC))
+                .call();
+        } catch (GitAPIException e) {
+            throw new IOException(AppConfig.ERROR_BUNDLE_FAILED + e.getMessage(), e);
+        }
+        Files.deleteIfExists(bundle);
+    }
+
+    /**
+     * Reads the tips recorded by {@link #recordTips(List)}, the refs the client is known
+     * to hold.
+     * @return the recorded tip IDs, empty before the first accepted bundle
+     * @throws IOException if the tips file cannot be read
+     */
+    public List<ObjectId> readTips() throws IOException {
+        List<ObjectId> tips = new ArrayList<>();
+        Path file = directory.resolve(AppConfig.BUNDLE_TIPS_FILE);
+        if (!Files.exists(file)) {
+            return tips;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (ObjectId.isId(line.trim())) {
+                tips.add(ObjectId.fromString(line.trim()));
+            }
+        }
+        return tips;
+    }
+
+    /**
+     * Reads one line of a bundle header, which ends before the pack data begins.
+     * @param in the bundle stream
+     * @return the line without its terminator, empty at the end of the header
+     * @throws IOException if the bundle cannot be read or ends within its header
+     */
+    private static String readHeaderLine(final InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new EOFException(AppConfig.ERROR_BUNDLE_FAILED + AppConfig.ERROR_BUNDLE_HEADER);
+            }
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+}
@@ -1,18 +1,34 @@
 package se.miun.dt133g.zkgithelper.git;
 
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.eclipse.jgit.lib.ObjectStream;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.net.URISyntaxException;
 
 /**
@@ -23,13 +39,52 @@ public final class GitCommands {
 
     private static final String EMPTY_TREE_HASH = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
 
+    private final Map<File, ObjectIdIndex> indexes = new ConcurrentHashMap<>();
+
     /**
      * Constructor for the GitCommands class.
      */
     public GitCommands() { }
 
+    /**
+     * Registers the object ID index of a repository, so existence checks on that
+     * repository can rule out absent objects without touching the object database.
+     * @param repository the repository
+     * @param index the index of the repository's objects directory
+     */
+    protected void useIndex(final Repository repository, final ObjectIdIndex index) {
+        indexes.put(repository.getDirectory(), index);
+    }
+
+    /**
+     * Returns the object ID index registered for a repository.
+     * @param repository the repository
+     * @return the index, or null if none is registered
+     */
+    protected ObjectIdIndex indexFor(final Repository repository) {
+        return indexes.get(repository.getDirectory());
+    }
+
+    /**
+     * Checks whether an object is present, asking the repository's object ID index
+     * first and the object database only if the index cannot rule the object out.
+     * @param id the object ID
+     * @param repository the repository to check
+     * @return true if the object is present
+     * @throws IOException if the object database cannot be read
+     */
+    protected boolean hasObject(final AnyObjectId id, final Repository repository) throws IOException {
+        ObjectIdIndex index = indexes.get(repository.getDirectory());
+        if (index != null && !index.mightContain(id)) {
+            return false;
+        }
+        return repository.getObjectDatabase().has(id);
+    }
+
     /**
      * Checks if one commit is an ancestor of another.
+     * Uses the repository's commit-graph when both commits are in it, pruning
+     * the search by generation number; otherwise falls back to a RevWalk.
      * @param ancestorId the possible ancestor commit ID
      * @param refId the target commit ID
      * @param repository the repository to check in
@@ -40,12 +95,58 @@ public final class GitCommands {
                               final ObjectId refId,
                               final Repository repository)
         throws IOException {
-        try (RevWalk walk =
-             new RevWalk(repository)) {
-            RevCommit ancestorCommit = walk.parseCommit(ancestorId);
-            RevCommit refCommit = walk.parseCommit(refId);
-            return walk.isMergedInto(ancestorCommit, refCommit);
+        if (ancestorId.equals(refId)) {
+            return true;
         }
+        try (ObjectReader reader = repository.newObjectReader()) {
+            CommitGraph graph = reader.getCommitGraph().orElse(CommitGraph.EMPTY);
+            int ancestorPos = graph.findGraphPosition(ancestorId);
+            int refPos = graph.findGraphPosition(refId);
+            if (ancestorPos >= 0 && refPos >= 0) {
+                return isAncestorInGraph(graph, ancestorPos, refPos);
+            }
+            try (RevWalk walk = new RevWalk(reader)) {
+                RevCommit ancestorCommit = walk.parseCommit(ancestorId);
+                RevCommit refCommit = walk.parseCommit(refId);
+                return walk.isMergedInto(ancestorCommit, refCommit);
+            }
+        }
+    }
+
+    /**
+     * Searches the commit-graph parent lists from a commit for an ancestor position.
+     * Commits with a generation number not above the ancestor's cannot reach it
+     * and are not expanded.
+     * @param graph the commit-graph to search
+     * @param ancestorPos the graph position of the possible ancestor
+     * @param refPos the graph position to start from
+     * @return true if ancestorPos is reachable from refPos
+     */
+    private boolean isAncestorInGraph(final CommitGraph graph,
+                                      final int ancestorPos,
+                                      final int refPos) {
+        int ancestorGeneration = graph.getCommitData(ancestorPos).getGeneration();
+        if (graph.getCommitData(refPos).getGeneration() <= ancestorGeneration) {
+            return false;
+        }
+
+        BitSet seen = new BitSet();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(refPos);
+        seen.set(refPos);
+        while (!pending.isEmpty()) {
+            for (int parent : graph.getCommitData(pending.pop()).getParents()) {
+                if (parent == ancestorPos) {
+                    return true;
+                }
+                if (!seen.get(parent)
+                    && graph.getCommitData(parent).getGeneration() > ancestorGeneration) {
+                    seen.set(parent);
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -58,9 +159,8 @@ public final class GitCommands {
     protected boolean objectExists(final String sha,
                                 final Repository repository)
         throws IOException {
-        ObjectId objectId = repository.resolve(sha);
-        return objectId != null
-            && repository.getObjectDatabase().has(objectId);
+        ObjectId objectId = ObjectId.isId(sha) ? ObjectId.fromString(sha) : repository.resolve(sha);
+        return objectId != null && hasObject(objectId, repository);
     }
 
     /**
@@ -136,28 +236,95 @@ public final class GitCommands {
     }
 
     /**
-     * Gets the raw byte data of a Git object.
+     * Gets the raw byte data of a small Git object, read through {@link #copyObject}.
+     * Objects above the streaming threshold are not loaded into memory; read those with
+     * {@link #openObject} or {@link #copyObject} instead.
      * @param sha the SHA-1 of the object
      * @param kind the object type (unused)
      * @param repository the repository to read from
-     * @return the object data or null
-     * @throws IOException if the object cannot be read
+     * @return the object data or null if the object does not exist
+     * @throws IOException if the object cannot be read or is too large to hold in memory
      */
     protected byte[] objectData(final String sha,
                              final String kind,
                              final Repository repository)
         throws IOException {
         ObjectId objectId = repository.resolve(sha);
-        if (objectId == null) {
+        if (objectId == null || !hasObject(objectId, repository)) {
             return null;
         }
 
         ObjectLoader loader = repository.open(objectId);
-        try {
-            return loader.getBytes();
-        } catch (Exception e) {
+        if (loader.isLarge()) {
+            throw new IOException(AppConfig.ERROR_OBJECT_TOO_LARGE + sha);
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream((int) loader.getSize());
+        copyObject(loader, data);
+        return data.toByteArray();
+    }
+
+    /**
+     * Opens a Git object as a stream, without loading it into memory. Objects above the
+     * streaming threshold are inflated as they are read, from memory-mapped pack windows
+     * when {@code zkgit.mmap} is set. The caller must close the stream.
+     * @param sha the SHA-1 of the object
+     * @param repository the repository to read from
+     * @return the object content, or null if the object does not exist
+     * @throws IOException if the object cannot be opened
+     */
+    protected InputStream openObject(final String sha,
+                                     final Repository repository)
+        throws IOException {
+        ObjectId objectId = repository.resolve(sha);
+        if (objectId == null || !hasObject(objectId, repository)) {
             return null;
         }
+        return repository.open(objectId).openStream();
+    }
+
+    /**
+     * Copies the content of a Git object to a stream through a bounded buffer,
+     * so heap use does not depend on the object's size.
+     * @param sha the SHA-1 of the object
+     * @param repository the repository to read from
+     * @param out the stream receiving the content
+     * @return the number of bytes copied, or -1 if the object does not exist
+     * @throws IOException if the object cannot be read or the stream cannot be written
+     */
+    protected long copyObject(final String sha,
+                              final Repository repository,
+                              final OutputStream out)
+        throws IOException {
+        ObjectId objectId = repository.resolve(sha);
+        if (objectId == null || !hasObject(objectId, repository)) {
+            return -1;
+        }
+        return copyObject(repository.open(objectId), out);
+    }
+
+    /**
+     * Copies the content of a loaded object, streaming it if it is large.
+     * @param loader the object's loader
+     * @param out the stream receiving the content
+     * @return the number of bytes copied
+     * @throws IOException if the object cannot be read or the stream cannot be written
+     */
+    private long copyObject(final ObjectLoader loader, final OutputStream out) throws IOException {
+        if (!loader.isLarge()) {
+            byte[] cached = loader.getCachedBytes();
+            out.write(cached);
+            return cached.length;
+        }
+        long total = 0;
+        byte[] buffer = new byte[AppConfig.STREAM_BLOCK_SIZE];
+        try (ObjectStream in = loader.openStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+        }
+        return total;
     }
 
     /**
@@ -185,34 +352,55 @@ public final class GitCommands {
     }
 
     /**
-     * Lists all Git object IDs reachable from a ref, excluding given objects.
+     * Enumerates every object reachable from a ref, excluding the given objects
+     * and everything reachable from them, and streams each one to a visitor.
+     * Exclusions present in the repository are marked uninteresting on an
+     * {@link ObjectWalk} so shared history and trees are visited only once;
+     * exclusions not present locally are filtered through a raw-ID hash set.
+     * Presence is checked through the repository's object ID index where one is registered.
      * @param ref the starting ref (e.g., branch or commit)
-     * @param exclude list of object IDs to skip
+     * @param exclude object IDs to skip together with their reachable objects
      * @param repository the repository to walk
-     * @return list of reachable object IDs
+     * @param visitor the callback receiving each reachable object
+     * @return the number of objects passed to the visitor
      * @throws IOException if traversal fails
      */
-    protected List<String> listObjects(final String ref,
-                                    final List<String> exclude,
-                                    final Repository repository)
+    protected long listObjects(final String ref,
+                               final Collection<? extends AnyObjectId> exclude,
+                               final Repository repository,
+                               final ObjectVisitor visitor)
         throws IOException {
-        List<String> objects = new ArrayList<>();
-        try (RevWalk walk = new RevWalk(repository)) {
-            ObjectId commitId = repository.resolve(ref);
-            walk.markStart(walk.parseCommit(commitId));
-            for (RevCommit commit : walk) {
-                TreeWalk treeWalk = new TreeWalk(repository);
-                treeWalk.addTree(commit.getTree());
-                treeWalk.setRecursive(true);
-                while (treeWalk.next()) {
-                    String objectId = treeWalk.getObjectId(0).name();
-                    if (!exclude.contains(objectId)) {
-                        objects.add(objectId);
-                    }
+        ObjectId startId = repository.resolve(ref);
+        if (startId == null) {
+            return 0;
+        }
+
+        ObjectIdHashSet excluded = new ObjectIdHashSet(exclude.size());
+        long count = 0;
+        try (ObjectWalk walk = new ObjectWalk(repository)) {
+            walk.markStart(walk.parseAny(startId));
+            for (AnyObjectId id : exclude) {
+                excluded.add(id);
+                if (hasObject(id, repository)) {
+                    walk.markUninteresting(walk.parseAny(id));
+                }
+            }
+
+            RevObject object;
+            while ((object = walk.next()) != null) {
+                if (!excluded.contains(object)) {
+                    visitor.visit(object);
+                    count++;
+                }
+            }
+            while ((object = walk.nextObject()) != null) {
+                if (!excluded.contains(object)) {
+                    visitor.visit(object);
+                    count++;
                 }
             }
         }
-        return objects;
+        return count;
     }
 
     /**
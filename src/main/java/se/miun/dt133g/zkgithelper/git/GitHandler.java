@@ -1,67 +1,113 @@
 package se.miun.dt133g.zkgithelper.git;
 
 import se.miun.dt133g.zkgithelper.connection.GitConnection;
+import se.miun.dt133g.zkgithelper.files.CacheManager;
+import se.miun.dt133g.zkgithelper.files.ChunkIndex;
+import se.miun.dt133g.zkgithelper.files.ChunkManifest;
+import se.miun.dt133g.zkgithelper.files.RepoLock;
+import se.miun.dt133g.zkgithelper.files.RepoPackager;
+import se.miun.dt133g.zkgithelper.files.TransferJournal;
+import se.miun.dt133g.zkgithelper.files.UpToDateCache;
 import se.miun.dt133g.zkgithelper.support.AppConfig;
 import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.Settings;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+import se.miun.dt133g.zkgithelper.support.StripedLock;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PushCommand;
-import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.FS;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 
 /**
- * Singleton class responsible for managing Git operations such as push, fetch, and list.
+ * Responsible for managing Git operations such as push, fetch, and list for one session.
  * Uses JGit for low-level Git manipulation and supports temporary and main repositories.
+ * Every session has its own handler, connection and I/O, so several can run in one process.
  * @author Leif Rogell
  */
 public final class GitHandler {
 
-    public static final GitHandler INSTANCE = new GitHandler();
-
+    private final GitConnection connection;
+    private final IoUtils io;
     private Git git;
-    private Git tmpGit;
+    private RepositoryPool.Handle repositoryHandle;
+    private RepositoryPool.Handle tmpRepositoryHandle;
+    private CacheManager.Pin tmpRepoPin;
     private Repository repository;
     private Repository tmpRepository;
     private String repoPath;
     private String tmpRepoPath;
-    private int processes = AppConfig.MAX_NUM_PROCESSES;
+    private Config settings;
     private ConcurrentMap<String, Ref> refs = new ConcurrentHashMap<>();
     private Map<String, String> pushed = new HashMap<>();
     private boolean firstPush = false;
     private String repoName;
+    private boolean compress = false;
+    private String handoff;
+    private TransferJournal journal;
+    private long upToDateTtl = AppConfig.UPTODATE_TTL_SECONDS;
+    private UpToDateCache upToDate;
+    private final GitCommands commands = new GitCommands();
+    private static final StripedLock REF_LOCKS = new StripedLock(AppConfig.LOCK_STRIPES);
+    private final StripedLock fanOutLocks = new StripedLock(AppConfig.LOCK_STRIPES);
 
-    private GitHandler() { }
+    /**
+     * Creates a handler for one session.
+     * @param connection the session's connection to the ZK client
+     * @param io the session's input and output
+     */
+    public GitHandler(final GitConnection connection, final IoUtils io) {
+        this.connection = connection;
+        this.io = io;
+    }
 
     /**
      * Sets the repository name and logs it for debugging.
@@ -72,38 +118,139 @@ public final class GitHandler {
     }
 
     /**
-     * Initializes the temporary Git repository from the given path.
+     * Initializes the temporary Git repository from the given path. The directory is
+     * pinned in the cache until {@link #close()}, then other caches are evicted if the
+     * cache budget is exceeded.
      * @param path the path to the temporary repository's .git directory
      */
     public void setTmpRepoPath(final String path) {
         this.tmpRepoPath = path;
 
         try {
-            File repoDir = new File(path);
+            this.tmpRepoPin = CacheManager.INSTANCE.pin(Paths.get(path));
+            tmpRepoLock().withExclusive(() -> {
+                    openTmpRepository(new File(path));
+                    return null;
+                });
+            CacheManager.INSTANCE.evict();
+        } catch (IOException e) {
+            io.fatal("Failed to check or create repository: " + e.getMessage());
+        }
+    }
 
-            if (repoDir.exists()) {
-                IoUtils.INSTANCE.trace("repoDir exists");
-            }
+    /**
+     * Opens the temporary bare repository, initializing it if it does not exist yet,
+     * together with its journal, caches and indexes. Runs under the exclusive lock.
+     * @param repoDir the temporary repository directory
+     * @throws IOException if the repository cannot be initialized or opened
+     */
+    private void openTmpRepository(final File repoDir) throws IOException {
+        if (repoDir.exists()) {
+            io.trace("repoDir exists");
+        }
 
-            if (isBareRepo(path)) {
-                IoUtils.INSTANCE.trace("repo is bare");
+        boolean existing = RepositoryCache.FileKey.isGitRepository(repoDir, FS.DETECTED);
+        if (!existing) {
+            // Initialize a new bare repository if it doesn't exist
+            repoDir.mkdirs();
+            try {
+                Git.init().setDirectory(repoDir).setBare(true).call().close();
+            } catch (GitAPIException e) {
+                throw new IOException("Failed to initialize or open a repository: " + e.getMessage(), e);
             }
+            io.trace("Initialized new bare repository at: " + repoDir);
+        }
+        // Held until close(); later bare checks of the directory share it
+        this.tmpRepositoryHandle = RepositoryPool.INSTANCE.open(repoDir);
+        this.tmpRepository = tmpRepositoryHandle.getRepository();
+        if (existing && isBareRepo(repoDir.getPath())) {
+            io.trace("repo is bare");
+            io.trace("Opened existing repository at: " + repoDir);
+        }
+        enableCommitGraph(tmpRepository.getConfig());
+        tmpRepository.getConfig().save();
+        applyRefStorage();
+        this.journal = TransferJournal.open(repoDir.toPath());
+        this.upToDate = UpToDateCache.open(repoDir.toPath(), TimeUnit.SECONDS.toMillis(upToDateTtl));
+        openObjectIndexes();
+    }
 
-            if (repoDir.exists() && isBareRepo(path)) {
-                // Open the existing repository
-                this.tmpGit = Git.open(repoDir);
-                IoUtils.INSTANCE.trace("Opened existing repository at: " + path);
-            } else {
-                // Initialize a new bare repository if it doesn't exist
-                repoDir.mkdirs();
-                this.tmpGit = Git.init().setDirectory(repoDir).setBare(true).call();
-                IoUtils.INSTANCE.trace("Initialized new bare repository at: " + path);
+    /**
+     * Loads or builds the object ID indexes of the temporary and working repositories,
+     * both persisted in the temporary repository directory, and registers them for
+     * existence checks. Without an index, checks fall back to the object database.
+     */
+    private void openObjectIndexes() {
+        try {
+            ObjectIdIndex tmpIndex = ObjectIdIndex.open(Paths.get(tmpRepoPath, AppConfig.GIT_OBJECTS),
+                                                        Paths.get(tmpRepoPath, AppConfig.OBJECT_INDEX_FILE));
+            commands.useIndex(tmpRepository, tmpIndex);
+            tmpIndex.save();
+            if (repository != null) {
+                ObjectIdIndex localIndex = ObjectIdIndex.open(
+                    Paths.get(repository.getDirectory().toString(), AppConfig.GIT_OBJECTS),
+                    Paths.get(tmpRepoPath, AppConfig.LOCAL_OBJECT_INDEX_FILE));
+                commands.useIndex(repository, localIndex);
+                localIndex.save();
             }
-        } catch (GitAPIException e) {
-            IoUtils.INSTANCE.fatal("Failed to initialize or open a repository: " + e.getMessage());
         } catch (IOException e) {
-            IoUtils.INSTANCE.fatal("Failed to check or create repository: " + e.getMessage());
+            io.trace(AppConfig.ERROR_OBJECT_INDEX + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the temporary repository to the ref storage format selected by
+     * {@code zkgit.refStorage} in the working repository's configuration.
+     * @throws IOException if the conversion fails
+     */
+    private void applyRefStorage() throws IOException {
+        if (repository == null || !(tmpRepository instanceof FileRepository)) {
+            return;
+        }
+        String wanted = settings.getString(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                           AppConfig.CONFIG_KEY_REF_STORAGE);
+        if (convertRefStorage((FileRepository) tmpRepository, wanted)) {
+            io.trace(AppConfig.STATUS_CONVERTING_REFS + wanted);
+        }
+    }
+
+    /**
+     * Converts a repository to a ref storage format. {@code reftable} stores refs in
+     * sorted, log-structured tables; {@code files} converts back to loose refs and
+     * packed-refs. Refs and their logs are kept.
+     * @param target the repository to convert
+     * @param wanted the wanted format, or null to leave the format unchanged
+     * @return true if the repository was converted
+     * @throws IOException if the conversion fails
+     */
+    static boolean convertRefStorage(final FileRepository target, final String wanted) throws IOException {
+        if (wanted == null) {
+            return false;
         }
+        boolean isReftable = ConfigConstants.CONFIG_REF_STORAGE_REFTABLE.equals(
+            target.getConfig().getString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+                                         ConfigConstants.CONFIG_KEY_REF_STORAGE));
+        boolean wantReftable = ConfigConstants.CONFIG_REF_STORAGE_REFTABLE.equalsIgnoreCase(wanted);
+        if (isReftable == wantReftable) {
+            return false;
+        }
+        target.convertRefStorage(wantReftable ? ConfigConstants.CONFIG_REF_STORAGE_REFTABLE
+                                 : AppConfig.REF_STORAGE_REFDIR,
+                                 true, false);
+        return true;
+    }
+
+    /**
+     * Enables reading and writing of the commit-graph file in a repository configuration.
+     * The graph is (re)written by repository maintenance and used for ancestry checks
+     * and history walks.
+     * @param config the repository configuration to update
+     */
+    private void enableCommitGraph(final StoredConfig config) {
+        config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+                          ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+        config.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null,
+                          ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, true);
     }
 
     /**
@@ -113,51 +260,115 @@ public final class GitHandler {
     public void setRepoPath(final String path) {
         this.repoPath = path;
         try {
-            this.repository = new FileRepositoryBuilder()
-                .setGitDir(new File(path + "/.git"))
+            File dotGit = new File(path, AppConfig.GIT_DIR);
+            FileRepositoryBuilder builder = new FileRepositoryBuilder();
+            if (dotGit.isFile()) {
+                // A submodule's .git file points at its repository
+                builder.setWorkTree(new File(path));
+            } else {
+                builder.setGitDir(dotGit);
+            }
+            this.repositoryHandle = RepositoryPool.INSTANCE.open(builder
                 .readEnvironment()
-                .findGitDir()
-                .build();
-            this.git = new Git(repository);
+                .findGitDir());
+            this.repository = repositoryHandle.getRepository();
+            this.git = Git.wrap(repository);
+            this.settings = Settings.layer(repository.getConfig());
+            this.compress = settings.getBoolean(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                AppConfig.CONFIG_KEY_COMPRESS, false);
+            this.handoff = settings.getString(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                              AppConfig.CONFIG_KEY_HANDOFF);
+            this.upToDateTtl = settings.getTimeUnit(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                                    AppConfig.CONFIG_KEY_UPTODATE_TTL,
+                                                    AppConfig.UPTODATE_TTL_SECONDS,
+                                                    TimeUnit.SECONDS);
+            if (repository.getConfig().getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+                                                 ConfigConstants.CONFIG_COMMIT_GRAPH) == null) {
+                repository.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+                                                  ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+            }
 
         } catch (IOException e) {
-            IoUtils.INSTANCE.fatal("Failed to set up repository: "
+            io.fatal("Failed to set up repository: "
                                    + e.getMessage());
         }
     }
 
     /**
-     * Pushes changes from the local repository to a specified bare repository.
+     * Returns the working repository's configuration, including the user's global settings,
+     * with {@code ZKGIT_*} environment variables layered on top.
+     * @return the layered repository configuration
+     */
+    public Config getConfig() {
+        return settings;
+    }
+
+    /**
+     * Pushes changes from the local repository to the temporary bare repository.
      * This method first checks if the target repository is a bare repository. If not, it logs a fatal error.
-     * If the repository is bare, it adds the remote, sets up the push command, and performs the push operation.
+     * The push goes directly to the repository's file URI, so the working repository's remote
+     * configuration is never modified. It holds the temporary repository's lock shared and
+     * only its destination ref's stripe lock exclusively, so pushes to different refs run
+     * side by side; across processes, JGit's ref lock files serialize updates of one ref.
      * The progress of the push is monitored during the process.
+     * @param refSpec the refspec to push, e.g. {@code +refs/heads/main:refs/heads/main}
+     * @return true if the push completed and its ref was updated
      */
-    public void pushToBareRepo() {
-        Iterable<PushResult> pushResults = null;
+    public boolean pushToBareRepo(final RefSpec refSpec) {
         if (!isBareRepo(tmpRepoPath)) {
-            IoUtils.INSTANCE.fatal("Error: The repository at " + tmpRepoPath + " is not a bare repository.");
-            return;
+            io.fatal("Error: The repository at " + tmpRepoPath + " is not a bare repository.");
+            return false;
         }
-        try (Git git = Git.open(new File(repoPath))) {
-            git.remoteAdd()
-                .setName("origin")
-                .setUri(new URIish("file://" + tmpRepoPath))
-                .call();
-            PushCommand pushCommand = git.push();
-            pushCommand.setRemote("origin");
+        ReentrantLock refLock = REF_LOCKS.lockFor(tmpRepoPath + AppConfig.COLON_SEPARATOR
+                                                  + refSpec.getDestination());
+        refLock.lock();
+        try {
+            return tmpRepoLock().withShared(() -> {
+                    Iterable<PushResult> results;
+                    try {
+                        PushCommand pushCommand = git.push();
+                        pushCommand.setRemote(new URIish("file://" + tmpRepoPath).toString());
+                        pushCommand.setRefSpecs(refSpec);
 
-            ProgressMonitor progressMonitor = new SimpleProgressMonitor();
-            pushCommand.setProgressMonitor(progressMonitor);
+                        ProgressMonitor progressMonitor = new SimpleProgressMonitor();
+                        pushCommand.setProgressMonitor(progressMonitor);
 
-            pushResults = pushCommand.call();
-        } catch (Exception e) {
-            IoUtils.INSTANCE.trace(e.getMessage());
-            e.printStackTrace();
+                        results = pushCommand.call();
+                    } catch (GitAPIException | URISyntaxException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                    for (PushResult result : results) {
+                        for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+                            if (update.getStatus() != RemoteRefUpdate.Status.OK
+                                && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                                io.trace(AppConfig.ERROR_STAGING_REJECTED + update.getRemoteName()
+                                         + AppConfig.SPACE_SEPARATOR + update.getStatus());
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                });
+        } catch (IOException e) {
+            io.trace(e.getMessage());
+            return false;
+        } finally {
+            refLock.unlock();
         }
     }
 
     /**
-     * Checks if the specified Git repository is a bare repository.
+     * Returns the cross-process lock guarding the temporary repository.
+     * @return the lock for the temporary repository directory
+     */
+    private RepoLock tmpRepoLock() {
+        return RepoLock.forDirectory(Paths.get(tmpRepoPath));
+    }
+
+    /**
+     * Checks if the specified Git repository is a bare repository. Directories without a
+     * git layout are rejected before any repository is opened, and an open repository
+     * is shared from the pool rather than opened again.
      * @param repoPath the path to the repository directory.
      * @return {@code true} if the repository is bare, {@code false} otherwise.
      */
@@ -166,24 +377,24 @@ public final class GitHandler {
             File repoDir = new File(repoPath);
 
             if (!repoDir.exists() || !repoDir.isDirectory()) {
-                IoUtils.INSTANCE.fatal("The directory is not accessible or doesn't exist.");
+                io.fatal("The directory is not accessible or doesn't exist.");
                 return false;
             }
 
-            Repository repository = new RepositoryBuilder()
-                .setGitDir(new File(repoPath))
-                .readEnvironment()
-                .findGitDir()
-                .build();
-
-            if (repository.isBare() && repository.getDirectory().exists()) {
-                File refsDir = new File(repository.getDirectory(), "refs");
-                return refsDir.exists() && refsDir.isDirectory();
+            if (!RepositoryCache.FileKey.isGitRepository(repoDir, FS.DETECTED)) {
+                return false;
+            }
+            try (RepositoryPool.Handle handle = RepositoryPool.INSTANCE.open(repoDir)) {
+                Repository repository = handle.getRepository();
+                if (repository.isBare() && repository.getDirectory().exists()) {
+                    File refsDir = new File(repository.getDirectory(), "refs");
+                    return refsDir.exists() && refsDir.isDirectory();
+                }
             }
 
             return false;
         } catch (IOException e) {
-            IoUtils.INSTANCE.trace("Error checking if repository is bare: " + e.getMessage());
+            io.trace("Error checking if repository is bare: " + e.getMessage());
             return false;
         }
     }
@@ -209,356 +420,1112 @@ public final class GitHandler {
 
     /**
      * Lists Git references in the repository and prints their object IDs and names.
+     * Branches and tags are streamed straight from the ref database through a buffered
+     * writer, followed by peeled {@code ^{}} entries for annotated tags when fetching.
+     * Any {@code ref-prefix <prefix>} arguments restrict the listing to those prefixes.
+     * A fetch first compares ref trees with the client and requests only the refs and
+     * history that differ. The tree is built from the temporary repository, which holds
+     * the client's copy as last received or accepted, here as in {@link #prepareRequest()};
+     * the working repository's own branches say nothing about the client's copy.
+     * The client's copy may change between lists, so a retried fetch always asks again and
+     * only resumes the interrupted copy of large files.
+     * A list repeated while the client's last confirmation of the same refs is within
+     * {@code zkgit.upToDateTtl}, including one made by the prefetch daemon, or whose tree
+     * matches the client's, is answered from the temporary repository without requesting
+     * data, so git fetches what a prefetch already staged.
      * Handles both pull and push cases and reports the HEAD ref if applicable.
      * @param line the command input line
      */
     public void doList(final String line) {
         boolean forPush = line.contains(AppConfig.GIT_FOR_PUSH);
-        IoUtils.INSTANCE.trace(line);
-        IoUtils.INSTANCE.trace(Boolean.toString(forPush));
+        io.trace(line);
+        io.trace(Boolean.toString(forPush));
 
         try {
-            if (GitConnection.INSTANCE.requestFile(repoPath,
-                                                   calculateRepoSignature(forPush))
-                .contains(AppConfig.STATUS_REPO_UPTODATE) && !forPush) {
-                IoUtils.INSTANCE.fatal(null);
-                return;
+            RefMerkleTree tree = tmpRepoLock().withShared(() -> new RefMerkleTree(tmpRepository));
+            String scope = forPush ? AppConfig.UPTODATE_SCOPE_PUSH : AppConfig.UPTODATE_SCOPE_FETCH;
+            if (upToDate.isFresh(scope, tree.getRoot())
+                || (!forPush && upToDate.isFresh(AppConfig.UPTODATE_SCOPE_PREFETCH, tree.getRoot()))) {
+                io.trace(AppConfig.STATUS_UPTODATE_CACHED + tree.getRoot());
+            } else {
+                requestRepository(tree, scope, forPush);
             }
 
-            List<Ref> refs = getRefs();
-
-            for (Ref ref : refs) {
-                String refName = ref.getName();
-                String refObjectId = ref.getObjectId().getName();
-                IoUtils.INSTANCE.write(refObjectId + AppConfig.SPACE_SEPARATOR + refName);
-            }
+            PrintWriter out = io.bufferedWriter();
+            tmpRepoLock().withShared(() -> {
+                    writeRefs(out, tmpRepository, parseRefPrefixes(line), !forPush);
+                    return null;
+                });
 
             if (!forPush) {
                 Ref head = repository.exactRef(AppConfig.GIT_HEAD);
                 if (head != null) {
                     String headTargetName = head.getTarget().getName();
-                    IoUtils.INSTANCE.write(AppConfig.AT_SEPARATOR + headTargetName
-                                           + AppConfig.SPACE_SEPARATOR + AppConfig.GIT_HEAD);
+                    out.println(AppConfig.AT_SEPARATOR + headTargetName
+                                + AppConfig.SPACE_SEPARATOR + AppConfig.GIT_HEAD);
                 } else {
-                    IoUtils.INSTANCE.trace(AppConfig.STATUS_NO_DEFAULT_BRANCH);
+                    io.trace(AppConfig.STATUS_NO_DEFAULT_BRANCH);
                 }
             }
 
-            IoUtils.INSTANCE.write(AppConfig.GIT_END);
+            out.println(AppConfig.GIT_END);
+            out.flush();
         } catch (IOException e) {
-            IoUtils.INSTANCE.fatal("git list failed: " + e.getMessage());
+            io.fatal("git list failed: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * Requests the repository from the ZK client and unpacks it into the temporary
+     * repository, unless the ref trees match. Exits when the client answers that a
+     * fetch is up to date. States the client confirmed are cached.
+     * @param tree the Merkle tree of the temporary repository's refs
+     * @param scope the up-to-date cache scope of the list
+     * @param forPush whether the list precedes a push
+     * @throws IOException if the payload cannot be unpacked
+     */
+    private void requestRepository(final RefMerkleTree tree,
+                                   final String scope,
+                                   final boolean forPush) throws IOException {
+        String signature = calculateRepoSignature(forPush);
+        List<String> wants = Collections.emptyList();
+        if (!forPush) {
+            Map<String, Integer> changed = changedRefs(tree);
+            if (changed != null && changed.isEmpty()) {
+                io.trace(AppConfig.STATUS_REQUEST_UPTODATE);
+                upToDate.confirm(scope, tree.getRoot());
+                return;
+            }
+            wants = wantTokens(changed);
+        }
+        String response = connection.requestFile(repoPath, signature, wants);
+        if (response.contains(AppConfig.STATUS_REPO_UPTODATE) && !forPush) {
+            upToDate.confirm(scope, tree.getRoot());
+            io.fatal(null);
+            return;
+        }
+        unpackPayload();
+        if (AppConfig.HANDOFF_BUNDLE.equals(handoff)) {
+            applyHandoffBundle(response);
+        }
+        if (forPush && (response.contains(AppConfig.COMMAND_SUCCESS)
+                        || response.contains(AppConfig.STATUS_REPO_UPTODATE))) {
+            upToDate.confirm(scope, tree.getRoot());
+        }
+    }
+
+    /**
+     * Forgets the client's last confirmations, so the next list contacts the client.
+     * Called before every push; tools that change the client's copy by other means
+     * call it as well.
+     */
+    public void invalidateUpToDate() {
+        if (upToDate != null) {
+            upToDate.invalidate();
+        }
+    }
+
+    /**
+     * Compares the temporary repository's branches and tags with the client's copy
+     * through a Merkle tree, exchanging only the hashes of differing subtrees.
+     * @param tree the Merkle tree of the temporary repository's refs
+     * @return each differing ref mapped to its first differing history segment, empty
+     *         if nothing differs, or null if the client cannot compare trees
+     */
+    private Map<String, Integer> changedRefs(final RefMerkleTree tree) {
+        try {
+            Map<String, Integer> changed = tree.diff(
+                (kind, scope, nodes) -> connection.compareTree(repoPath, kind, scope, nodes));
+            if (changed != null) {
+                io.trace(AppConfig.STATUS_MERKLE_CHANGED + changed);
+            }
+            return changed;
+        } catch (IOException e) {
+            io.trace(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Turns the result of a tree comparison into REQUEST tokens of the form
+     * {@code <ref>@<segment>}.
+     * @param changed the differing refs and segments, or null to request everything
+     * @return the tokens, empty to request everything
+     */
+    private List<String> wantTokens(final Map<String, Integer> changed) {
+        List<String> wants = new ArrayList<>();
+        if (changed != null) {
+            for (Map.Entry<String, Integer> entry : changed.entrySet()) {
+                wants.add(entry.getKey() + AppConfig.MERKLE_SEGMENT_SEPARATOR + entry.getValue());
+            }
+        }
+        return wants;
+    }
+
+    /**
+     * Extracts {@code ref-prefix} arguments from a list command line.
+     * @param line the command input line
+     * @return the requested prefixes, or the branch and tag prefixes if none were given
+     */
+    static List<String> parseRefPrefixes(final String line) {
+        List<String> prefixes = new ArrayList<>();
+        String[] parts = line.split(AppConfig.SPACE_SEPARATOR);
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (parts[i].equals(AppConfig.GIT_REF_PREFIX)) {
+                prefixes.add(parts[++i]);
+            }
+        }
+        if (prefixes.isEmpty()) {
+            prefixes.add(Constants.R_HEADS);
+            prefixes.add(Constants.R_TAGS);
+        }
+        return prefixes;
+    }
+
+    /**
+     * Writes every ref of a repository matching the prefixes.
+     * @param out the writer receiving {@code <object-id> <ref-name>} lines
+     * @param source the repository whose refs are listed, the temporary one
+     * @param prefixes the ref name prefixes to include
+     * @param peel whether to add a {@code ^{}} line for each annotated tag
+     * @throws IOException if the ref database cannot be read
+     */
+    static void writeRefs(final PrintWriter out,
+                          final Repository source,
+                          final List<String> prefixes,
+                          final boolean peel) throws IOException {
+        RefDatabase refDatabase = source.getRefDatabase();
+        for (Ref ref : refDatabase.getRefsByPrefix(prefixes.toArray(new String[0]))) {
+            if (ref.getObjectId() == null) {
+                continue;
+            }
+            out.println(ref.getObjectId().getName() + AppConfig.SPACE_SEPARATOR + ref.getName());
+            if (peel && ref.getName().startsWith(Constants.R_TAGS)) {
+                ObjectId peeled = refDatabase.peel(ref).getPeeledObjectId();
+                if (peeled != null) {
+                    out.println(peeled.getName() + AppConfig.SPACE_SEPARATOR
+                                + ref.getName() + AppConfig.GIT_PEELED_SUFFIX);
+                }
+            }
+        }
+    }
+
     /**
      * Pushes changes to a remote repository. Handles first-time push,
      * reference updates, and sending objects to the server.
+     * With {@code zkgit.handoff=stream} the pack is streamed to the client while the
+     * push into the temporary repository runs; otherwise the temporary repository is
+     * handed off once the push into it has completed. Stages completed by an interrupted
+     * attempt of the same push are taken from the transfer journal instead of being redone;
+     * a push the client rejects or never receives is unstaged and its stages forgotten.
      * @param line the command input line containing source and destination references
      */
     public void doPush(final String line) {
-        IoUtils.INSTANCE.trace("push: " + line);
+        io.trace("push: " + line);
         String[] parts = line.split(AppConfig.SPACE_SEPARATOR);
         String src = parts[1].split(AppConfig.COLON_SEPARATOR)[0].replaceFirst("^\\+", "");
         String dst = parts[1].split(AppConfig.COLON_SEPARATOR)[1];
+        RefSpec refSpec = new RefSpec(parts[1]);
+        invalidateUpToDate();
+        ObjectId want = resolvePushSource(src);
+        String key = want != null
+            ? AppConfig.JOURNAL_PUSH_KEY + dst + AppConfig.COLON_SEPARATOR + want.name()
+            : null;
+
+        ObjectId previous = stagedTip(dst);
+        if (want != null && !refSpec.isForceUpdate() && !isFastForward(previous, want)) {
+            io.write(AppConfig.GIT_ERROR + dst + AppConfig.SPACE_SEPARATOR + AppConfig.GIT_NON_FAST_FORWARD);
+            io.write(AppConfig.GIT_END);
+            return;
+        }
 
-        Thread pushThread = new Thread(() -> pushToBareRepo());
-        pushThread.start();
-
-        // Start sendFile immediately in main thread or another thread
-        AtomicReference<String> responseRef = new AtomicReference<>();
-        try {
-            Thread sendThread = new Thread(() -> {
-                    String response = GitConnection.INSTANCE.sendFile(repoPath, calculateRepoSignature(false));
-                    responseRef.set(response);
-            });
-            sendThread.start();
-
-            pushThread.join();
-            sendThread.join();
-        } catch (InterruptedException e) {
-            IoUtils.INSTANCE.fatal(AppConfig.ERROR_REPO_TRANSFER_FAILED
-                                   + e.getMessage());            
+        String response;
+        if (AppConfig.HANDOFF_STREAM.equals(handoff) && want != null) {
+            response = streamPush(refSpec, dst, want, key);
+        } else {
+            response = stagePush(refSpec, dst, want, key) ? sendStagedRepository(key) : null;
         }
 
-        if (responseRef.get() == null
-            || !responseRef.get().contains(AppConfig.COMMAND_SUCCESS)) {
-            IoUtils.INSTANCE.fatal(AppConfig.ERROR_REPO_TRANSFER_FAILED
+        if (response == null
+            || !response.contains(AppConfig.COMMAND_SUCCESS)) {
+            unstagePush(dst, want, previous);
+            if (key != null) {
+                journal.complete(key);
+            }
+            io.fatal(AppConfig.ERROR_REPO_TRANSFER_FAILED
                                    + line);
         } else {
-            IoUtils.INSTANCE.trace(AppConfig.STATUS_SEND_FINISH);
+            if (key != null) {
+                journal.complete(key);
+            }
+            io.trace(AppConfig.STATUS_SEND_FINISH);
         }
 
-        IoUtils.INSTANCE.write(AppConfig.GIT_END);
-
-        /*try {
-            if (src.equals(AppConfig.GIT_END)) {
-                delete(dst);
-            } else {
+        io.write(AppConfig.GIT_END);
+        RepoMaintenance.INSTANCE.schedule(tmpRepository);
+    }
 
-                copyAllObjects(Paths.get(repository.getDirectory().toString(), AppConfig.GIT_OBJECTS),
-                               Paths.get(tmpRepoPath, AppConfig.GIT_OBJECTS));
-                push(src, dst);
-                if (firstPush) {
-                    Ref remoteHead = repository.exactRef(AppConfig.GIT_HEAD);
-                    if (remoteHead != null) {
-                        if (!writeSymbolicRef(AppConfig.GIT_HEAD, dst)) {
-                            IoUtils.INSTANCE.trace(AppConfig.ERROR_REMOTE_BRANCH_FAIL);
-                        }
-                    } else {
-                        IoUtils.INSTANCE.trace(AppConfig.ERROR_FIRST_REMOTE_BRANCH_FAIL);
+    /**
+     * Streams a pack of the pushed objects to the ZK client while the push into the
+     * temporary repository runs. Objects reachable from the tips the client confirmed
+     * receiving are left out of the pack; once the client accepts it, the pushed commit
+     * joins those tips.
+     * @param refSpec the refspec being pushed
+     * @param dst the destination ref of the push
+     * @param want the pushed commit
+     * @param key the transfer journal key of the push
+     * @return the client's response, or null if the push failed
+     */
+    private String streamPush(final RefSpec refSpec,
+                              final String dst,
+                              final ObjectId want,
+                              final String key) {
+        try {
+            BundleHandoff confirmed = new BundleHandoff(tmpRepository, Paths.get(tmpRepoPath));
+            List<ObjectId> have = confirmed.readTips();
+            String signature = calculateRepoSignature(false);
+            String response = new PushPipeline(repository).run(
+                want, have, () -> stagePush(refSpec, dst, want, key),
+                source -> connection.streamFile(repoPath, signature, source));
+            if (response != null && response.contains(AppConfig.COMMAND_SUCCESS)) {
+                List<ObjectId> tips = new ArrayList<>();
+                for (ObjectId tip : have) {
+                    if (!repository.getObjectDatabase().has(tip) || !commands.isAncestor(tip, want, repository)) {
+                        tips.add(tip);
                     }
                 }
-                String response = GitConnection.INSTANCE.sendFile(repoPath,
-                                                                  calculateRepoSignature(true));
-
-                if (response == null
-                    || !response.contains(AppConfig.COMMAND_SUCCESS)) {
-                    IoUtils.INSTANCE.fatal(AppConfig.ERROR_REPO_TRANSFER_FAILED
-                                           + line);
-                } else {
-                    IoUtils.INSTANCE.trace(AppConfig.STATUS_SEND_FINISH);
-                }
+                tips.add(want);
+                recordBundleTips(tips);
             }
-            IoUtils.INSTANCE.write(AppConfig.GIT_END);
+            return response;
         } catch (IOException e) {
-            IoUtils.INSTANCE.fatal("push failed");
-            }*/
+            io.trace(e.getMessage());
+            return null;
+        }
     }
 
     /**
-     * Copies all object files from the source .git/objects directory to the target location.
-     * @param sourceObjectsPath the source path of Git objects
-     * @param targetObjectsPath the target path for copied Git objects
-     * @throws IOException if a file operation fails
+     * Reads the tip the temporary repository holds for a ref.
+     * @param dst the ref
+     * @return the staged tip, or null if the ref does not exist or cannot be read
      */
-    private void copyAllObjects(final Path sourceObjectsPath,
-                                final Path targetObjectsPath) throws IOException {
-        Files.walk(sourceObjectsPath)
-            .filter(Files::isRegularFile)
-            .forEach(sourcePath -> {
-                    try {
-                        Path relativePath = sourceObjectsPath.relativize(sourcePath);
-                        Path targetPath = targetObjectsPath.resolve(relativePath);
+    private ObjectId stagedTip(final String dst) {
+        try {
+            Ref staged = tmpRepoLock().withShared(() -> tmpRepository.exactRef(dst));
+            return staged != null ? staged.getObjectId() : null;
+        } catch (IOException e) {
+            io.trace(e.getMessage());
+            return null;
+        }
+    }
 
-                        if (Files.exists(targetPath)) {
-                            return;
-                        }
+    /**
+     * Checks that a push only moves its destination forward, before anything is staged
+     * or sent. The staged tip must be known to the working repository and reachable
+     * from the pushed commit, which is decided on the working repository's commit-graph
+     * where it has one.
+     * @param old the staged tip of the destination ref, or null if it does not exist
+     * @param want the pushed commit
+     * @return true if the destination is new or the push fast-forwards it
+     */
+    private boolean isFastForward(final ObjectId old, final ObjectId want) {
+        if (old == null) {
+            return true;
+        }
+        try {
+            return repository.getObjectDatabase().has(old) && commands.isAncestor(old, want, repository);
+        } catch (IOException e) {
+            io.trace(e.getMessage());
+            return false;
+        }
+    }
 
-                        Files.createDirectories(targetPath.getParent());
-                        Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-                    } catch (IOException e) {
-                        IoUtils.INSTANCE.fatal("Failed to copy object: "
-                                               + sourcePath.toString() + " - " + e.getMessage());
+    /**
+     * Undoes the staging of a push the client did not accept, so the temporary
+     * repository never holds a ref the client lacks and a retry stages and sends the
+     * push again. The ref is only reset while it still holds the pushed object.
+     * @param dst the destination ref of the push
+     * @param want the pushed object, or null for a deletion
+     * @param previous the tip the ref held before the push, or null if it did not exist
+     */
+    private void unstagePush(final String dst, final ObjectId want, final ObjectId previous) {
+        if (previous == null ? want == null : previous.equals(want)) {
+            return;
+        }
+        ReentrantLock refLock = REF_LOCKS.lockFor(tmpRepoPath + AppConfig.COLON_SEPARATOR + dst);
+        refLock.lock();
+        try {
+            RefUpdate.Result result = tmpRepoLock().withShared(() -> {
+                    RefUpdate update = tmpRepository.updateRef(dst);
+                    update.setExpectedOldObjectId(want != null ? want : ObjectId.zeroId());
+                    update.setForceUpdate(true);
+                    if (previous == null) {
+                        return update.delete();
                     }
+                    update.setNewObjectId(previous);
+                    return update.update();
                 });
+            io.trace(AppConfig.STATUS_UNSTAGED + dst + AppConfig.SPACE_SEPARATOR + result);
+        } catch (IOException e) {
+            io.trace(e.getMessage());
+        } finally {
+            refLock.unlock();
+        }
     }
 
     /**
-     * Fetches an object from the temporary repository into the main repository.
-     * @param line the command input line containing object SHA and reference name
+     * Resolves the source of a push to the pushed object.
+     * @param src the source ref, empty for a deletion
+     * @return the pushed object, or null for a deletion or an unresolvable source
      */
-    public void doFetch(final String line) {
-        String[] parts = line.split(AppConfig.SPACE_SEPARATOR);
-        String sha = parts[1];
-        String ref = parts[2];
+    private ObjectId resolvePushSource(final String src) {
+        if (src.isEmpty()) {
+            return null;
+        }
         try {
-            copyAllObjects(Paths.get(tmpRepoPath, AppConfig.GIT_OBJECTS),
-                           Paths.get(repository.getDirectory().toString(), AppConfig.GIT_OBJECTS));
-            //fetch(sha, ref);
+            return repository.resolve(src);
         } catch (IOException e) {
-            e.printStackTrace();
+            io.trace(e.getMessage());
+            return null;
         }
-        IoUtils.INSTANCE.write(AppConfig.GIT_END);
     }
 
     /**
-     * Deletes a branch reference from the repository and updates internal state.
-     * @param ref the name of the reference to delete
+     * Pushes into the temporary repository unless an interrupted attempt of the same
+     * push already did so and the destination ref still points at the pushed object.
+     * @param refSpec the refspec being pushed
+     * @param dst the destination ref of the push
+     * @param want the pushed object, or null for a deletion
+     * @param key the transfer journal key of the push, or null for a deletion
+     * @return true if the temporary repository holds the push
      */
-    private void delete(final String ref) {
-        try {
-            git.branchDelete().setBranchNames(ref).setForce(true).call();
-        } catch (GitAPIException e) {
-            e.printStackTrace();
+    private boolean stagePush(final RefSpec refSpec,
+                              final String dst,
+                              final ObjectId want,
+                              final String key) {
+        if (key != null && journal.isDone(key, AppConfig.JOURNAL_STAGE_STAGED)) {
+            try {
+                Ref staged = tmpRepoLock().withShared(() -> tmpRepository.exactRef(dst));
+                if (staged != null && want.equals(staged.getObjectId())) {
+                    io.trace(AppConfig.STATUS_RESUMING + key);
+                    return true;
+                }
+            } catch (IOException e) {
+                io.trace(e.getMessage());
+            }
         }
-        refs.remove(ref);
-        pushed.remove(ref);
-        IoUtils.INSTANCE.write(AppConfig.GIT_OK + ref);
+        boolean pushed = pushToBareRepo(refSpec);
+        if (pushed && key != null) {
+            journal.record(key, AppConfig.JOURNAL_STAGE_STAGED, null);
+        }
+        return pushed;
     }
 
     /**
-     * Pushes the specified source reference to the destination reference.
-     * Copies necessary Git objects and writes updated refs.
-     * @param src the source reference (e.g., branch name or commit SHA)
-     * @param dst the destination reference in the remote repo
+     * Returns the payload an interrupted attempt of the same push already prepared,
+     * or prepares and journals a new one.
+     * @param key the transfer journal key of the push, or null for a deletion
+     * @param producer prepares the payload, returning its path or null on failure
+     * @return the payload path, or null if it could not be prepared
      */
-    private void push(String src, final String dst) {
-        boolean force = false;
-        if (src.startsWith(AppConfig.GIT_FORCE)) {
-            src = src.substring(1);
-            force = true;
+    private String preparePayload(final String key, final Supplier<String> producer) {
+        String detail = key != null ? journal.detail(key, AppConfig.JOURNAL_STAGE_PACKAGED) : null;
+        if (detail != null) {
+            String[] parts = detail.split(AppConfig.SPACE_SEPARATOR, 2);
+            Path previous = Paths.get(parts[1]);
+            try {
+                if (Files.exists(previous) && Files.size(previous) == Long.parseLong(parts[0])) {
+                    io.trace(AppConfig.STATUS_RESUMING + key);
+                    return parts[1];
+                }
+            } catch (IOException e) {
+                io.trace(AppConfig.ERROR_JOURNAL + e.getMessage());
+            }
+        }
+        String payload = producer.get();
+        if (payload != null && key != null) {
+            try {
+                journal.record(key, AppConfig.JOURNAL_STAGE_PACKAGED,
+                               Files.size(Paths.get(payload)) + AppConfig.SPACE_SEPARATOR + payload);
+            } catch (IOException e) {
+                io.trace(AppConfig.ERROR_JOURNAL + e.getMessage());
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Hands the staged temporary repository to the ZK client. Depending on
+     * {@code zkgit.handoff} and {@code zkgit.compress} the client is given an
+     * incremental bundle, a compressed payload, or the repository path, together
+     * with a chunk manifest of exactly that payload. The tips a bundle carries become
+     * the base of the next bundle only once the client has accepted it.
+     * @param key the transfer journal key of the push, or null for a deletion
+     * @return the client's response, or null if the payload could not be prepared
+     */
+    private String sendStagedRepository(final String key) {
+        String payload;
+        boolean bundleHandoff = AppConfig.HANDOFF_BUNDLE.equals(handoff);
+        if (bundleHandoff) {
+            payload = preparePayload(key, this::writeHandoffBundle);
+        } else {
+            payload = compress ? preparePayload(key, this::packagePayload) : repoPath;
+        }
+        if (payload == null) {
+            return null;
+        }
+
+        List<ObjectId> bundleTips = null;
+        if (bundleHandoff) {
+            try {
+                bundleTips = BundleHandoff.readBundleTips(Paths.get(payload));
+            } catch (IOException e) {
+                io.trace(AppConfig.ERROR_BUNDLE_FAILED + e.getMessage());
+            }
         }
 
-        List<String> present = new ArrayList<>(refs.keySet());
-        present.addAll(pushed.values());
+        ChunkManifest manifest = buildChunkManifest(Paths.get(payload));
+        String response = connection.sendFile(payload, calculateRepoSignature(false),
+                                                          manifest != null
+                                                          ? manifest.getFile().toString()
+                                                          : null);
+        if (response != null && response.contains(AppConfig.COMMAND_SUCCESS)) {
+            if (manifest != null) {
+                recordDeliveredChunks(manifest);
+            }
+            if (bundleTips != null) {
+                recordBundleTips(bundleTips);
+            }
+        }
+        return response;
+    }
 
-        List<ObjectId> objects;
+    /**
+     * Writes an incremental bundle of the temporary repository for the ZK client.
+     * @return the bundle path, or null if it could not be written
+     */
+    private String writeHandoffBundle() {
         try {
-            objects = getGitObjects(repoPath);
+            return tmpRepoLock().withShared(() -> new BundleHandoff(tmpRepository, Paths.get(tmpRepoPath))
+                                            .writeBundle().toString());
         } catch (IOException e) {
-            e.printStackTrace();
-            return;
+            io.trace(AppConfig.ERROR_BUNDLE_FAILED + e.getMessage());
+            return null;
         }
+    }
 
-        ExecutorService pool = Executors.newFixedThreadPool(processes);
+    /**
+     * Records the tips of a bundle the client accepted as the base of the next
+     * incremental bundle.
+     * @param tips the tips read from the accepted bundle
+     */
+    private void recordBundleTips(final List<ObjectId> tips) {
+        try {
+            new BundleHandoff(tmpRepository, Paths.get(tmpRepoPath)).recordTips(tips);
+        } catch (IOException e) {
+            io.trace(AppConfig.ERROR_BUNDLE_FAILED + e.getMessage());
+        }
+    }
 
-        for (ObjectId obj : objects) {
-            pool.execute(() -> {
-                    try {
-                        putObject(obj);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                });
+    /**
+     * Fetches a bundle delivered by the ZK client into the temporary repository.
+     * The bundle is taken from the client's response if it names one, otherwise
+     * from the conventional bundle file in the temporary repository directory.
+     * @param response the client's response to the REQUEST command
+     * @throws IOException if the bundle cannot be applied
+     */
+    private void applyHandoffBundle(final String response) throws IOException {
+        Path bundle = Paths.get(tmpRepoPath, AppConfig.BUNDLE_FILE);
+        for (String token : response.split(AppConfig.SPACE_SEPARATOR)) {
+            if (token.endsWith(AppConfig.BUNDLE_SUFFIX)) {
+                bundle = Paths.get(token);
+            }
+        }
+        if (!Files.exists(bundle)) {
+            return;
         }
+        Path delivered = bundle;
+        tmpRepoLock().withExclusive(() -> {
+                new BundleHandoff(tmpRepository, Paths.get(tmpRepoPath)).applyBundle(delivered);
+                return null;
+            });
+    }
 
-        pool.shutdown();
+    /**
+     * Splits a payload into content-defined chunks and writes a manifest marking each
+     * chunk as new or already delivered. A payload file is chunked as a whole, relative
+     * to its directory; for the repository path the working repository's object files
+     * are chunked, relative to that path, as the client reads them from there.
+     * @param payload the payload handed to the client
+     * @return the manifest, or null if it could not be built
+     */
+    private ChunkManifest buildChunkManifest(final Path payload) {
+        Path dir = Paths.get(tmpRepoPath);
+        try {
+            Path root;
+            List<Path> files;
+            if (Files.isDirectory(payload)) {
+                root = payload;
+                files = ChunkManifest.objectFiles(repository.getDirectory().toPath().resolve(AppConfig.GIT_OBJECTS));
+            } else {
+                root = payload.getParent();
+                files = List.of(payload);
+            }
+            return tmpRepoLock().withShared(() -> ChunkManifest.build(root, files, dir, ChunkIndex.load(dir)));
+        } catch (IOException e) {
+            io.trace(AppConfig.ERROR_CHUNK_MANIFEST + e.getMessage());
+            return null;
+        }
+    }
 
-        String sha;
+    /**
+     * Compresses the staged temporary repository into a single payload file.
+     * @return the payload file path, or null if compression failed
+     */
+    private String packagePayload() {
         try {
-            sha = repository.resolve(src).getName();
+            return tmpRepoLock().withShared(() -> RepoPackager.INSTANCE.pack(Paths.get(tmpRepoPath)).toString());
         } catch (IOException e) {
-            e.printStackTrace();
+            io.trace(AppConfig.ERROR_COMPRESSING_FAILED + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Unpacks a compressed payload delivered by the ZK client into the temporary repository.
+     * Does nothing if the client delivered the repository uncompressed.
+     * @throws IOException if the payload cannot be unpacked
+     */
+    private void unpackPayload() throws IOException {
+        Path payload = Paths.get(tmpRepoPath, AppConfig.PAYLOAD_FILE);
+        if (!Files.exists(payload)) {
             return;
         }
-        String error = writeRef(sha, dst, force);
+        tmpRepoLock().withExclusive(() -> {
+                RepoPackager.INSTANCE.unpack(payload, Paths.get(tmpRepoPath));
+                return Files.deleteIfExists(payload);
+            });
+    }
 
-        if (error == null) {
-            IoUtils.INSTANCE.write(AppConfig.GIT_OK + dst);
-            pushed.put(dst, sha);
-        } else {
-            IoUtils.INSTANCE.write(AppConfig.GIT_ERROR + dst + AppConfig.SPACE_SEPARATOR + error);
+    /**
+     * Records the new chunks of a manifest as delivered once the client has accepted them.
+     * @param manifest the manifest sent with the accepted transfer
+     */
+    private void recordDeliveredChunks(final ChunkManifest manifest) {
+        try {
+            tmpRepoLock().withExclusive(() -> {
+                    ChunkIndex.load(Paths.get(tmpRepoPath)).addAll(manifest.getNewChunks());
+                    return null;
+                });
+        } catch (IOException e) {
+            io.trace(AppConfig.ERROR_CHUNK_MANIFEST + e.getMessage());
         }
     }
 
     /**
-     * Retrieves all Git object IDs from the specified repository's objects directory.
-     * @param gitDir the path to the Git repository
-     * @return a list of Git object IDs
-     * @throws IOException if the objects directory is invalid or unreadable
+     * Copies all object files from the source .git/objects directory to the target location.
+     * Files are copied in parallel on the shared disk limit, pack files and loose objects
+     * first and index files once all of them are in place, so a reader never sees an index
+     * without its pack. Loose objects the target repository already has, loose or packed,
+     * are skipped; its object ID index answers that in memory for most new objects and
+     * is updated with everything copied. Packs whose objects the target already has all
+     * of, such as the pack a repack of the temporary repository writes, are skipped with
+     * their indexes. Every copied file is verified in parallel with
+     * the remaining copies; files failing verification are removed again, a pack
+     * together with its indexes, and reported.
+     * @param sourceObjectsPath the source path of Git objects
+     * @param targetObjectsPath the target path for copied Git objects
+     * @param target the repository owning the target objects directory
+     * @throws IOException if a file operation fails or a copied file is corrupt
+     */
+    private void copyAllObjects(final Path sourceObjectsPath,
+                                final Path targetObjectsPath,
+                                final Repository target) throws IOException {
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(sourceObjectsPath)) {
+            sources = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        ObjectIdIndex index = commands.indexFor(target);
+        if (index != null) {
+            index.refresh();
+        }
+        Set<String> redundant = redundantPacks(sources, target);
+        List<Path> packIndexes = sources.stream().filter(this::isPackIndex).collect(Collectors.toList());
+        List<Path> objectFiles = sources.stream().filter(path -> !isPackIndex(path)).collect(Collectors.toList());
+        List<String> failures;
+        try (ObjectVerifier verifier = new ObjectVerifier()) {
+            copyObjectFiles(objectFiles, sourceObjectsPath, targetObjectsPath, target, redundant, index, verifier);
+            copyObjectFiles(packIndexes, sourceObjectsPath, targetObjectsPath, target, redundant, index, verifier);
+            failures = verifier.awaitFailures();
+        }
+        if (index != null) {
+            index.save();
+        }
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                int end = failure.indexOf(AppConfig.COLON_SEPARATOR);
+                if (end > 0) {
+                    Path failed = targetObjectsPath.resolve(failure.substring(0, end));
+                    for (Path file : ObjectVerifier.withCompanions(failed)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            throw new IOException(AppConfig.ERROR_VERIFICATION_FAILED + failures.size() + AppConfig.NEW_LINE
+                                  + String.join(AppConfig.NEW_LINE, failures));
+        }
+    }
+
+    /**
+     * Copies a batch of object files in parallel on the shared disk limit and waits for
+     * all of them. The first failing copy cancels the rest of the batch.
+     * @param files the source object files to copy
+     * @param sourceObjectsPath the source path of Git objects
+     * @param targetObjectsPath the target path for copied Git objects
+     * @param target the repository owning the target objects directory
+     * @param redundant the names of packs the target already has every object of
+     * @param index the target's object ID index, or null if it has none
+     * @param verifier the verifier every copied file is submitted to
+     * @throws IOException if a copy fails
+     */
+    private void copyObjectFiles(final List<Path> files,
+                                 final Path sourceObjectsPath,
+                                 final Path targetObjectsPath,
+                                 final Repository target,
+                                 final Set<String> redundant,
+                                 final ObjectIdIndex index,
+                                 final ObjectVerifier verifier) throws IOException {
+        try (SharedExecutor.Group group = SharedExecutor.INSTANCE.newGroup()) {
+            for (Path sourcePath : files) {
+                group.submit(SharedExecutor.Resource.DISK, () -> {
+                        try {
+                            Path relativePath = sourceObjectsPath.relativize(sourcePath);
+                            Path targetPath = targetObjectsPath.resolve(relativePath);
+
+                            ObjectId looseId = looseObjectId(relativePath);
+                            if (looseId != null ? commands.hasObject(looseId, target)
+                                : Files.exists(targetPath) || redundant.contains(packName(sourcePath))) {
+                                return null;
+                            }
+                            copyObjectFile(sourcePath, targetPath);
+                            verifier.submit(targetObjectsPath, targetPath);
+                            if (index != null && looseId != null) {
+                                index.add(looseId);
+                            } else if (index != null
+                                       && targetPath.toString().endsWith(AppConfig.PACK_INDEX_SUFFIX)) {
+                                index.addPack(targetPath);
+                            }
+                            return null;
+                        } catch (IOException e) {
+                            throw new IOException(AppConfig.ERROR_COPY_OBJECT + sourcePath
+                                                  + " - " + e.getMessage(), e);
+                        }
+                    });
+            }
+            group.await();
+        }
+    }
+
+    /**
+     * Finds the packs among the source files whose objects the target repository
+     * already has, so copying them would only store every object a second time.
+     * @param sources the source object files
+     * @param target the repository owning the target objects directory
+     * @return the names of the redundant packs, without suffix
+     * @throws IOException if a pack index or the target's objects cannot be read
+     */
+    private Set<String> redundantPacks(final List<Path> sources, final Repository target) throws IOException {
+        Set<String> redundant = new HashSet<>();
+        for (Path source : sources) {
+            if (!source.getFileName().toString().endsWith(AppConfig.PACK_INDEX_SUFFIX)) {
+                continue;
+            }
+            boolean present = true;
+            for (PackIndex.MutableEntry entry : PackIndex.open(source.toFile())) {
+                if (!commands.hasObject(entry.toObjectId(), target)) {
+                    present = false;
+                    break;
+                }
+            }
+            if (present) {
+                redundant.add(packName(source));
+            }
+        }
+        return redundant;
+    }
+
+    /**
+     * Returns the name a pack file and its indexes share.
+     * @param path a file in the objects directory
+     * @return the file name without its suffix
      */
-    private List<ObjectId> getGitObjects(final String gitDir) throws IOException {
-        List<ObjectId> objects = new ArrayList<>();
-        File objectsDir = new File(gitDir + "/.git/", "objects");
+    private static String packName(final Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * Derives the object ID of a loose object file from its path.
+     * @param relativePath the file's path relative to the objects directory
+     * @return the object ID, or null if the file is not a loose object
+     */
+    private ObjectId looseObjectId(final Path relativePath) {
+        if (relativePath.getNameCount() != 2) {
+            return null;
+        }
+        String name = relativePath.getName(0).toString() + relativePath.getName(1).toString();
+        return ObjectId.isId(name) ? ObjectId.fromString(name) : null;
+    }
+
+    /**
+     * Checks whether a file in the objects directory indexes a pack file.
+     * @param path the file to check
+     * @return true for pack index, bitmap and reverse index files
+     */
+    private boolean isPackIndex(final Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(AppConfig.PACK_INDEX_SUFFIX)
+            || name.endsWith(AppConfig.PACK_BITMAP_SUFFIX)
+            || name.endsWith(AppConfig.PACK_REVERSE_INDEX_SUFFIX);
+    }
+
+    /**
+     * Copies one object file via a temporary file and an atomic rename, so concurrent
+     * readers in other processes never observe a partially written object. Copies into
+     * the same fan-out directory are serialised within this process. Large files such
+     * as packs are copied in checkpointed steps so an interrupted copy resumes.
+     * @param sourcePath the object file to copy
+     * @param targetPath the destination of the object file
+     * @throws IOException if the copy fails
+     */
+    private void copyObjectFile(final Path sourcePath, final Path targetPath) throws IOException {
+        Path targetDir = targetPath.getParent();
+        ReentrantLock lock = fanOutLocks.lockFor(targetDir.toString());
+        lock.lock();
+        try {
+            Files.createDirectories(targetDir);
+            if (Files.size(sourcePath) >= AppConfig.JOURNAL_CHECKPOINT_BYTES) {
+                copyResumable(sourcePath, targetPath);
+                return;
+            }
+            Path tmpFile = Files.createTempFile(targetDir, AppConfig.TMP_OBJECT_PREFIX, null);
+            try {
+                Files.copy(sourcePath, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmpFile, targetPath, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        if (!objectsDir.exists() || !objectsDir.isDirectory()) {
-            throw new IOException("Not a valid Git objects directory: " + objectsDir.getAbsolutePath());
+    /**
+     * Copies a large object file through a partial file, journaling the copied offset
+     * after every checkpoint. A later copy of the same file continues from the last
+     * journaled offset, then renames the partial file into place.
+     * @param sourcePath the object file to copy
+     * @param targetPath the destination of the object file
+     * @throws IOException if the copy fails
+     */
+    private void copyResumable(final Path sourcePath, final Path targetPath) throws IOException {
+        Path part = targetPath.resolveSibling(AppConfig.TMP_OBJECT_PREFIX + targetPath.getFileName()
+                                              + AppConfig.PARTIAL_SUFFIX);
+        String key = AppConfig.JOURNAL_COPY_KEY + targetPath.getFileName();
+        long size = Files.size(sourcePath);
+        long position = 0;
+        String detail = journal.detail(key, AppConfig.JOURNAL_STAGE_COPIED);
+        if (detail != null && Files.exists(part)) {
+            String[] parts = detail.split(AppConfig.SPACE_SEPARATOR);
+            long offset = Long.parseLong(parts[1]);
+            if (Long.parseLong(parts[0]) == size && Files.size(part) >= offset) {
+                io.trace(AppConfig.STATUS_RESUMING + key + AppConfig.SPACE_SEPARATOR + offset);
+                position = offset;
+            }
         }
 
-        Files.walk(Paths.get(objectsDir.getAbsolutePath()))
-             .filter(Files::isRegularFile)
-             .map(path -> path.getParent().getFileName() + path.getFileName().toString())
-             .map(hash -> {
-                 try {
-                     return ObjectId.fromString(hash);
-                 } catch (IllegalArgumentException e) {
-                     return null;
-                 }
-             })
-             .filter(obj -> obj != null)
-             .collect(Collectors.toCollection(() -> objects));
+        try (FileChannel in = FileChannel.open(sourcePath, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(position);
+            while (position < size) {
+                in.position(position);
+                long n = out.transferFrom(in, position,
+                                          Math.min(AppConfig.JOURNAL_CHECKPOINT_BYTES, size - position));
+                if (n <= 0) {
+                    throw new IOException(AppConfig.ERROR_READING_FILE + sourcePath);
+                }
+                position += n;
+                out.force(false);
+                journal.record(key, AppConfig.JOURNAL_STAGE_COPIED, size + AppConfig.SPACE_SEPARATOR + position);
+            }
+        }
+        Files.move(part, targetPath, StandardCopyOption.ATOMIC_MOVE);
+        journal.complete(key);
+    }
 
-        return objects;
+    /**
+     * Fetches an object from the temporary repository into the main repository.
+     * @param line the command input line containing object SHA and reference name
+     */
+    public void doFetch(final String line) {
+        String[] parts = line.split(AppConfig.SPACE_SEPARATOR);
+        String sha = parts[1];
+        String ref = parts[2];
+        try {
+            tmpRepoLock().withShared(() -> {
+                    copyAllObjects(Paths.get(tmpRepoPath, AppConfig.GIT_OBJECTS),
+                                   Paths.get(repository.getDirectory().toString(), AppConfig.GIT_OBJECTS),
+                                   repository);
+                    return null;
+                });
+            //fetch(sha, ref);
+        } catch (IOException e) {
+            io.fatal("git fetch failed: " + e.getMessage());
+        }
+        io.write(AppConfig.GIT_END);
+        RepoMaintenance.INSTANCE.schedule(tmpRepository);
     }
 
     /**
-     * Copies a single Git object file from the main repository to the temporary repository.
-     *
-     * @param sha the object ID to copy
-     * @throws IOException if the copy operation fails
+     * A REQUEST to send to the ZK client for the repository the handler points at, for
+     * callers that send it themselves and stage the response later.
      */
-    private void putObject(final ObjectId sha) throws IOException {
-        Path sourcePath = Paths.get(repository.getDirectory().toString(),
-                                    AppConfig.GIT_OBJECTS,
-                                    sha.name().substring(0, 2),
-                                    sha.name().substring(2));
+    public static final class PendingRequest {
+        private final String repoPath;
+        private final String signature;
+        private final List<String> wants;
+
+        PendingRequest(final String repoPath, final String signature, final List<String> wants) {
+            this.repoPath = repoPath;
+            this.signature = signature;
+            this.wants = wants;
+        }
+
+        /**
+         * Returns the repository path the request names.
+         * @return the repository path
+         */
+        public String getRepoPath() {
+            return repoPath;
+        }
+
+        /**
+         * Returns the working repository's signature.
+         * @return the signature, or null if it has no history
+         */
+        public String getSignature() {
+            return signature;
+        }
 
-        Path targetPath = Paths.get(tmpRepoPath,
-                                    AppConfig.GIT_OBJECTS,
-                                    sha.name().substring(0, 2),
-                                    sha.name().substring(2));
+        /**
+         * Returns the refs and history segments that differ from the client's copy.
+         * @return the REQUEST tokens, empty to request everything
+         */
+        public List<String> getWants() {
+            return wants;
+        }
+    }
 
+    /**
+     * Brings the temporary repository up to date with the ZK client in the background and
+     * mirrors its branches into {@code refs/prefetch/} of the working repository, with
+     * their objects, so a later interactive fetch finds them local. Failures are traced
+     * and never exit.
+     * @param remote the name of the working repository's remote
+     * @return true if the temporary repository is now current with the client, whether
+     *         new data was staged or none was needed; false if the prefetch failed
+     */
+    public boolean prefetch(final String remote) {
+        PendingRequest request;
         try {
-            Files.createDirectories(targetPath.getParent());
-            Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            request = pendingRequest();
         } catch (IOException e) {
-            e.printStackTrace();
-            IoUtils.INSTANCE.trace("putObject ERROR: " + e.getMessage());
+            io.trace(AppConfig.ERROR_PREFETCH_FAILED + e.getMessage());
+            return false;
+        }
+        if (request == null) {
+            return true;
         }
+        String response = connection.requestFile(request.getRepoPath(), request.getSignature(),
+                                                             request.getWants());
+        if (response != null && response.contains(AppConfig.STATUS_REPO_UPTODATE)) {
+            return true;
+        }
+        return stageResponse(remote, response, true);
     }
 
     /**
-     * Retrieves all branch references from the temporary Git repository.
-     * @return a list of branch references, or an empty list if retrieval fails
+     * Works out what to ask the ZK client for. The client is only asked for data when the
+     * temporary repository's ref tree differs from the client's copy and was not confirmed
+     * equal within {@code zkgit.upToDateTtl}. Failures are traced and never exit.
+     * @return the request to send, or null if the temporary repository is up to date
      */
-    private List<Ref> getRefs() {
+    public PendingRequest prepareRequest() {
         try {
-            return tmpGit.branchList().call();
-        } catch (GitAPIException e) {
-            e.printStackTrace();
-            return Collections.emptyList();
+            return pendingRequest();
+        } catch (IOException e) {
+            io.trace(AppConfig.ERROR_PREFETCH_FAILED + e.getMessage());
+            return null;
         }
     }
 
     /**
-     * Writes a new reference (branch or tag) in the temporary repository.
-     * Supports fast-forward and force updates, and prevents non-fast-forwards.
-     * @param sha the SHA of the commit to point to
-     * @param ref the reference name (e.g., refs/heads/main)
-     * @param force whether to force the update regardless of history
-     * @return null if successful, or an error message string if failed
+     * Compares the temporary repository with the client's copy and builds the request
+     * for what differs.
+     * @return the request to send, or null if the temporary repository is up to date
+     * @throws IOException if the temporary repository cannot be read
      */
-    private String writeRef(final String sha, final String ref, final boolean force) {
-        Ref oldRef = refs.get(ref);
-        if (oldRef != null) {
-            try {
-                ObjectId newObjectId = ObjectId.fromString(sha);
-                ObjectId oldObjectId = oldRef.getObjectId();
+    private PendingRequest pendingRequest() throws IOException {
+        RefMerkleTree tree = tmpRepoLock().withShared(() -> new RefMerkleTree(tmpRepository));
+        if (upToDate.isFresh(AppConfig.UPTODATE_SCOPE_PREFETCH, tree.getRoot())) {
+            return null;
+        }
+        Map<String, Integer> changed = changedRefs(tree);
+        if (changed != null && changed.isEmpty()) {
+            upToDate.confirm(AppConfig.UPTODATE_SCOPE_PREFETCH, tree.getRoot());
+            return null;
+        }
+        return new PendingRequest(repoPath, calculateRepoSignature(false), wantTokens(changed));
+    }
 
-                if (!force && !isAncestor(oldObjectId, newObjectId, tmpRepository)) {
-                    return AppConfig.ERROR_NON_FAST_FORWARD;
-                }
-                if (isAncestor(newObjectId, oldObjectId, tmpRepository)) {
+    /**
+     * Stages the ZK client's response to a prepared request: unpacks it into the temporary
+     * repository, copies the objects into the working repository and updates the remote's
+     * tracking refs, or their {@code refs/prefetch/} copies. Failures are traced and
+     * never exit.
+     * @param remote the name of the working repository's remote
+     * @param response the client's response to the request
+     * @param prefetch whether to write {@code refs/prefetch/} instead of tracking refs
+     * @return true if new data was staged
+     */
+    public boolean stageResponse(final String remote, final String response, final boolean prefetch) {
+        if (response == null || !response.contains(AppConfig.COMMAND_SUCCESS)) {
+            io.trace(AppConfig.STATUS_PREFETCH_SKIPPED + response);
+            return false;
+        }
+        try {
+            unpackPayload();
+            if (AppConfig.HANDOFF_BUNDLE.equals(handoff)) {
+                applyHandoffBundle(response);
+            }
+            tmpRepoLock().withShared(() -> {
+                    copyAllObjects(Paths.get(tmpRepoPath, AppConfig.GIT_OBJECTS),
+                                   Paths.get(repository.getDirectory().toString(), AppConfig.GIT_OBJECTS),
+                                   repository);
+                    writeTrackingRefs(remote, prefetch);
                     return null;
+                });
+            upToDate.confirm(AppConfig.UPTODATE_SCOPE_PREFETCH, new RefMerkleTree(tmpRepository).getRoot());
+            RepoMaintenance.INSTANCE.schedule(tmpRepository);
+            return true;
+        } catch (IOException e) {
+            io.trace(AppConfig.ERROR_PREFETCH_FAILED + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Updates the working repository's tracking refs of a remote from the temporary
+     * repository's branches, mapped through the remote's fetch refspecs. Tags the
+     * working repository lacks are created, as fetch's tag following does. For a
+     * prefetch, the tracking refs are written under {@code refs/prefetch/} instead,
+     * tags are left alone, and prefetch refs whose branch is gone are deleted.
+     * @param remote the name of the working repository's remote
+     * @param prefetch whether to write {@code refs/prefetch/} copies of the tracking refs
+     * @throws IOException if the refs cannot be read or updated
+     */
+    private void writeTrackingRefs(final String remote, final boolean prefetch) throws IOException {
+        List<RefSpec> specs;
+        try {
+            specs = new RemoteConfig(repository.getConfig(), remote).getFetchRefSpecs();
+        } catch (URISyntaxException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        Map<String, ObjectId> wanted = new HashMap<>();
+        for (Ref ref : tmpRepository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+            for (RefSpec spec : specs) {
+                if (ref.getObjectId() != null && !spec.isNegative() && spec.matchSource(ref)) {
+                    String destination = spec.expandFromSource(ref).getDestination();
+                    wanted.put(prefetch ? prefetchRef(destination) : destination, ref.getObjectId());
+                }
+            }
+        }
+        if (prefetch) {
+            String prefix = AppConfig.PREFETCH_REF_PREFIX + remote + AppConfig.SLASH_SEPARATOR;
+            for (Ref ref : repository.getRefDatabase().getRefsByPrefix(prefix)) {
+                if (!wanted.containsKey(ref.getName())) {
+                    RefUpdate refUpdate = repository.updateRef(ref.getName());
+                    refUpdate.setForceUpdate(true);
+                    refUpdate.delete();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-                return AppConfig.ERROR_CANNOT_WRITE_REF;
             }
         } else {
-
-            try {
-                RefUpdate refUpdate = tmpRepository.updateRef(ref);
-                refUpdate.setNewObjectId(ObjectId.fromString(sha));
-                refUpdate.setForceUpdate(force);
-                RefUpdate.Result result = refUpdate.update();
-
-                if (result == RefUpdate.Result.NEW || result == RefUpdate.Result.FORCED
-                    || result == RefUpdate.Result.FAST_FORWARD) {
-                    refs.put(ref, tmpRepository.findRef(ref));
-                    return null;
-                } else {
-                    String errorMessage = "RefUpdate failed with result: " + result.toString();
-                    IoUtils.INSTANCE.trace(errorMessage);
-                    return AppConfig.ERROR_CANNOT_WRITE_REF + " - " + errorMessage;
+            for (Ref ref : tmpRepository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS)) {
+                if (ref.getObjectId() != null && repository.exactRef(ref.getName()) == null) {
+                    wanted.put(ref.getName(), ref.getObjectId());
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-                return AppConfig.ERROR_CANNOT_WRITE_REF;
             }
         }
-        return null;
+        for (Map.Entry<String, ObjectId> entry : wanted.entrySet()) {
+            RefUpdate refUpdate = repository.updateRef(entry.getKey());
+            refUpdate.setNewObjectId(entry.getValue());
+            refUpdate.setForceUpdate(true);
+            refUpdate.setRefLogMessage(prefetch ? AppConfig.PREFETCH_REFLOG_MESSAGE
+                                       : AppConfig.SYNC_REFLOG_MESSAGE, false);
+            RefUpdate.Result result = refUpdate.update();
+            if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED
+                && result != RefUpdate.Result.FAST_FORWARD && result != RefUpdate.Result.NO_CHANGE) {
+                io.trace(AppConfig.ERROR_CANNOT_WRITE_REF + " - " + entry.getKey() + " " + result);
+            }
+        }
+    }
+
+    /**
+     * Maps a tracking ref to its prefetch copy, as git's maintenance prefetch does.
+     * @param destination the tracking ref, such as {@code refs/remotes/origin/main}
+     * @return the prefetch ref, such as {@code refs/prefetch/remotes/origin/main}
+     */
+    private static String prefetchRef(final String destination) {
+        return destination.startsWith(Constants.R_REFS)
+            ? AppConfig.PREFETCH_NAMESPACE + destination.substring(Constants.R_REFS.length())
+            : AppConfig.PREFETCH_NAMESPACE + destination;
+    }
+
+    /**
+     * Releases the working and temporary repositories to the pool, before the handler
+     * is pointed at another repository or its session ends. Maintenance still running
+     * keeps the temporary repository open through its own handle.
+     */
+    public void close() {
+        if (repositoryHandle != null) {
+            repositoryHandle.close();
+            repositoryHandle = null;
+        }
+        if (tmpRepositoryHandle != null) {
+            tmpRepositoryHandle.close();
+            tmpRepositoryHandle = null;
+        }
+        if (tmpRepoPin != null) {
+            tmpRepoPin.close();
+            tmpRepoPin = null;
+        }
+    }
+
+    /**
+     * Deletes a branch reference from the repository and updates internal state.
+     * @param ref the name of the reference to delete
+     */
+    private void delete(final String ref) {
+        try {
+            git.branchDelete().setBranchNames(ref).setForce(true).call();
+        } catch (GitAPIException e) {
+            e.printStackTrace();
+        }
+        refs.remove(ref);
+        pushed.remove(ref);
+        io.write(AppConfig.GIT_OK + ref);
     }
 
     /**
@@ -585,61 +1552,51 @@ public final class GitHandler {
 
     /**
      * Computes a SHA-256 signature of the current repository's commit history.
-     * Used to detect if the repository state has changed.
-     * @param includeCurrentCommit whether to include the current commit in the hash
+     * Used to detect if the repository state has changed. Commit bodies are not
+     * retained, so parents are read from the commit-graph where one is available.
+     * @param forPush whether to leave out the most recent commit from the hash
      * @return a hex string of the calculated signature, or null if computation fails
      */
     private String calculateRepoSignature(final boolean forPush) {
-        IoUtils.INSTANCE.trace("calcRepo: " + Boolean.toString(forPush));
+        io.trace("calcRepo: " + Boolean.toString(forPush));
         try (RevWalk revWalk = new RevWalk(repository)) {
-            Iterable<RevCommit> commits = git.log().call();
-
-            List<String> commitHashes = StreamSupport.stream(commits.spliterator(), false)
-                .skip(forPush ? 1 : 0)
-                .map(RevCommit::getId)
-                .map(ObjectId::getName)
-                //.limit(5) 
-                .sorted()
-                .collect(Collectors.toList());
+            ObjectId headId = repository.resolve(AppConfig.GIT_HEAD);
+            if (headId == null) {
+                return null;
+            }
+            revWalk.setRetainBody(false);
+            revWalk.markStart(revWalk.parseCommit(headId));
+
+            List<ObjectId> commitIds = new ArrayList<>();
+            boolean skip = forPush;
+            for (RevCommit commit : revWalk) {
+                if (skip) {
+                    skip = false;
+                    continue;
+                }
+                commitIds.add(commit.getId());
+            }
+            Collections.sort(commitIds);
 
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            IoUtils.INSTANCE.trace("Size: " + commitHashes.size());
-            for (String hash : commitHashes) {
-                //IoUtils.INSTANCE.trace(hash);
-                digest.update(hash.getBytes());
+            io.trace("Size: " + commitIds.size());
+            byte[] hex = new byte[Constants.OBJECT_ID_STRING_LENGTH];
+            for (ObjectId id : commitIds) {
+                id.copyTo(hex, 0);
+                digest.update(hex);
             }
             byte[] combinedHashBytes = digest.digest();
             StringBuilder sb = new StringBuilder();
             for (byte b : combinedHashBytes) {
                 sb.append(String.format("%02x", b));
             }
-            IoUtils.INSTANCE.trace(sb.toString());
+            io.trace(sb.toString());
             return sb.toString();
-        } catch (NoSuchAlgorithmException | GitAPIException e) {
+        } catch (NoSuchAlgorithmException | IOException e) {
             return null;
         }
     }
 
-    /**
-     * Checks whether a commit is an ancestor of another commit in the repository history.
-     * @param ancestorId the possible ancestor commit ID
-     * @param refId the reference commit ID
-     * @param repository the Git repository to search
-     * @return true if ancestorId is an ancestor of refId, false otherwise
-     * @throws IOException if commit parsing fails
-     */
-    private boolean isAncestor(final ObjectId ancestorId,
-                              final ObjectId refId,
-                              final Repository repository)
-        throws IOException {
-        try (RevWalk walk =
-             new RevWalk(repository)) {
-            RevCommit ancestorCommit = walk.parseCommit(ancestorId);
-            RevCommit refCommit = walk.parseCommit(refId);
-            return walk.isMergedInto(ancestorCommit, refCommit);
-        }
-    }
-
     /*public void fetch(final String sha, final String refName) throws IOException {
     // Download the object specified by sha
     download(sha);
@@ -652,7 +1609,7 @@ public final class GitHandler {
     Files.write(refPath, sha.getBytes(StandardCharsets.UTF_8),
     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
-    IoUtils.INSTANCE.trace("Fetched " + sha + " and updated reference " + refName);
+    io.trace("Fetched " + sha + " and updated reference " + refName);
     }
 
     private void download(final String sha) throws IOException {
@@ -673,7 +1630,7 @@ public final class GitHandler {
     throw new RuntimeException(AppConfig.ERROR_HASH_MISMATCH + computedSha + " != " + sha);
     }
 
-    IoUtils.INSTANCE.trace("Downloaded and verified object " + sha);
+    io.trace("Downloaded and verified object " + sha);
     } else {
     throw new IOException("Object not found: " + sha);
     }
@@ -0,0 +1,193 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.connection.GitConnection;
+import se.miun.dt133g.zkgithelper.files.CacheManager;
+import se.miun.dt133g.zkgithelper.files.FileUtils;
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.SessionAbortedException;
+import se.miun.dt133g.zkgithelper.support.Settings;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Singleton that fetches a superproject and all its {@code zkgit::} submodules in one
+ * process. The slow part of a fetch, the ZK client retrieving and decrypting a
+ * repository, runs on the shared executor's socket workers, so at most
+ * {@code zkgit.socketThreads} repositories are retrieved at once; the local parts, working out what to request and staging
+ * what arrived, run one repository at a time as responses come in. Every remote gets
+ * its own handler and connection, so a failing repository ends only its own fetch.
+ * Process-wide settings and the cache configuration are read from the superproject.
+ * @author Leif Rogell
+ */
+public final class MultiRepoSync {
+
+    public static final MultiRepoSync INSTANCE = new MultiRepoSync();
+
+    /**
+     * One remote of one repository to fetch, with the handler and connection fetching it.
+     */
+    private static final class Target {
+        private final String dir;
+        private final String remote;
+        private final String url;
+        private final GitConnection connection;
+        private final GitHandler handler;
+
+        Target(final String dir, final String remote, final String url) {
+            this.dir = dir;
+            this.remote = remote;
+            this.url = url;
+            IoUtils io = new IoUtils(InputStream.nullInputStream(), OutputStream.nullOutputStream());
+            this.connection = new GitConnection(io);
+            this.handler = new GitHandler(connection, io);
+        }
+    }
+
+    private MultiRepoSync() { }
+
+    /**
+     * Fetches the {@code zkgit::} remotes of a superproject and of its initialized
+     * submodules, recursively, and updates their tracking refs.
+     * @param superproject the superproject's working directory
+     * @return the number of remotes that could not be fetched
+     */
+    public int run(final String superproject) {
+        List<Target> targets = new ArrayList<>();
+        try (RepositoryPool.Handle handle = Prefetcher.open(superproject)) {
+            Repository repository = handle.getRepository();
+            Config config = Settings.layer(repository.getConfig());
+            Settings.INSTANCE.configure(config);
+            CacheManager.INSTANCE.configure(config);
+            collectTargets(repository, targets);
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_SYNC_FAILED + superproject + " " + e.getMessage());
+            return 1;
+        }
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_SYNC_START + targets.size());
+
+        BlockingQueue<Map.Entry<Target, String>> responses = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        int failures = 0;
+        try {
+            for (Target target : targets) {
+                GitHandler.PendingRequest request;
+                try {
+                    point(target);
+                    request = target.handler.prepareRequest();
+                } catch (IOException | SessionAbortedException e) {
+                    IoUtils.INSTANCE.trace(AppConfig.ERROR_SYNC_FAILED + target.dir + " " + target.remote);
+                    failures++;
+                    continue;
+                } finally {
+                    target.handler.close();
+                }
+                if (request == null) {
+                    continue;
+                }
+                SharedExecutor.INSTANCE.submit(SharedExecutor.Resource.SOCKET, () -> {
+                        String response = null;
+                        try {
+                            response = target.connection.requestFileAsync(request.getRepoPath(),
+                                                                          request.getSignature(),
+                                                                          request.getWants()).get();
+                        } finally {
+                            responses.add(new AbstractMap.SimpleImmutableEntry<>(target, response));
+                        }
+                        return null;
+                    });
+                inFlight++;
+                for (Map.Entry<Target, String> response = responses.poll(); response != null;
+                     response = responses.poll()) {
+                    failures += stage(response);
+                    inFlight--;
+                }
+            }
+            for (; inFlight > 0; inFlight--) {
+                failures += stage(responses.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures += inFlight;
+        }
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_SYNC_FINISH + (targets.size() - failures) + "/" + targets.size());
+        return failures;
+    }
+
+    /**
+     * Stages one response into its repository.
+     * @param entry the target and the client's response, null if the request failed
+     * @return 1 if the request failed, otherwise 0
+     */
+    private int stage(final Map.Entry<Target, String> entry) {
+        Target target = entry.getKey();
+        if (entry.getValue() == null) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_SYNC_FAILED + target.dir + " " + target.remote);
+            return 1;
+        }
+        try {
+            point(target);
+            if (target.handler.stageResponse(target.remote, entry.getValue(), false)) {
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_SYNC_STAGED + target.remote + " " + target.dir);
+            }
+            return 0;
+        } catch (IOException | SessionAbortedException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_SYNC_FAILED + target.dir + " " + target.remote);
+            return 1;
+        } finally {
+            target.handler.close();
+        }
+    }
+
+    /**
+     * Points the handler and the connection at a target's repository.
+     * @param target the target
+     * @throws IOException if the target's temporary directory cannot be created
+     */
+    private void point(final Target target) throws IOException {
+        GitHandler handler = target.handler;
+        String repoName = handler.extractRepoName(target.url);
+        handler.setRepoName(repoName);
+        handler.setRepoPath(target.dir);
+        target.connection.setDstPort(target.url);
+        target.connection.configure(handler.getConfig());
+        handler.setTmpRepoPath(FileUtils.INSTANCE.createTmpDirectory(repoName));
+    }
+
+    /**
+     * Adds the {@code zkgit::} remotes of a repository and of its initialized submodules.
+     * @param repository the repository
+     * @param targets the list to add to
+     * @throws IOException if the submodules cannot be read
+     */
+    private void collectTargets(final Repository repository, final List<Target> targets) throws IOException {
+        String dir = repository.getWorkTree().getPath();
+        for (Map.Entry<String, String> remote : Prefetcher.zkgitRemotes(repository.getConfig()).entrySet()) {
+            targets.add(new Target(dir, remote.getKey(), remote.getValue()));
+        }
+        try (SubmoduleWalk walk = SubmoduleWalk.forIndex(repository)) {
+            while (walk.next()) {
+                try (Repository submodule = walk.getRepository()) {
+                    if (submodule == null) {
+                        IoUtils.INSTANCE.trace(AppConfig.STATUS_SYNC_UNINITIALIZED + walk.getPath());
+                        continue;
+                    }
+                    collectTargets(submodule, targets);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectIdSet;
+
+/**
+ * Open-addressing hash set of Git object IDs keyed on the raw 20-byte SHA-1.
+ * Each ID is stored as five consecutive ints in a single primitive table,
+ * avoiding per-entry object and string allocation for very large object counts.
+ * @author Leif Rogell
+ */
+public final class ObjectIdHashSet implements ObjectIdSet {
+
+    private static final int WORDS = 5;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] table;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    /**
+     * Creates an empty set with a default initial capacity.
+     */
+    public ObjectIdHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an empty set sized for the expected number of IDs.
+     * @param expected the expected number of entries
+     */
+    public ObjectIdHashSet(final int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Adds an object ID to the set.
+     * @param id the object ID to add
+     * @return true if the ID was not already present
+     */
+    public boolean add(final AnyObjectId id) {
+        if ((size + 1) * 2 > used.length) {
+            grow();
+        }
+        int slot = find(id);
+        if (used[slot]) {
+            return false;
+        }
+        store(slot, id);
+        size++;
+        return true;
+    }
+
+    /**
+     * Checks whether the set contains an object ID.
+     * @param id the object ID to look up
+     * @return true if the ID is present
+     */
+    @Override
+    public boolean contains(final AnyObjectId id) {
+        return used[find(id)];
+    }
+
+    /**
+     * Returns the number of IDs in the set.
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Locates the slot holding the ID, or the empty slot where it belongs.
+     * @param id the object ID to locate
+     * @return the slot index
+     */
+    private int find(final AnyObjectId id) {
+        int slot = word(id, 0) & mask;
+        while (used[slot] && !matches(slot, id)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Compares the ID stored in a slot with the given ID word by word.
+     * @param slot the slot index
+     * @param id the object ID to compare with
+     * @return true if the slot holds the same ID
+     */
+    private boolean matches(final int slot, final AnyObjectId id) {
+        int base = slot * WORDS;
+        return table[base] == word(id, 0)
+            && table[base + 1] == word(id, 1)
+            && table[base + 2] == word(id, 2)
+            && table[base + 3] == word(id, 3)
+            && table[base + 4] == word(id, 4);
+    }
+
+    /**
+     * Writes the raw words of an ID into a slot.
+     * @param slot the slot index
+     * @param id the object ID to store
+     */
+    private void store(final int slot, final AnyObjectId id) {
+        int base = slot * WORDS;
+        for (int i = 0; i < WORDS; i++) {
+            table[base + i] = word(id, i);
+        }
+        used[slot] = true;
+    }
+
+    /**
+     * Doubles the table and re-inserts all entries.
+     */
+    private void grow() {
+        int[] oldTable = table;
+        boolean[] oldUsed = used;
+        allocate(oldUsed.length * 2);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+            int base = i * WORDS;
+            int slot = oldTable[base] & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            System.arraycopy(oldTable, base, table, slot * WORDS, WORDS);
+            used[slot] = true;
+        }
+    }
+
+    /**
+     * Allocates empty backing arrays of the given capacity.
+     * @param capacity the number of slots, a power of two
+     */
+    private void allocate(final int capacity) {
+        table = new int[capacity * WORDS];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Extracts one 32-bit word of the raw SHA-1 from an object ID.
+     * @param id the object ID
+     * @param index the word index, 0 to 4
+     * @return the word value
+     */
+    private static int word(final AnyObjectId id, final int index) {
+        int value = 0;
+        for (int i = index * 4; i < index * 4 + 4; i++) {
+            value = value << 8 | id.getByte(i);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,322 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.Settings;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Persisted Bloom filter of the object IDs stored in an objects directory.
+ * A negative answer from {@link #mightContain} is exact, so most "do we already have
+ * this object?" checks are answered in memory; a positive answer must be confirmed
+ * against the object database. The filter remembers the modification time of every
+ * fan-out and pack directory it scanned and, on {@link #refresh}, rescans only the
+ * directories that changed since. Removed objects only cause extra positives.
+ * @author Leif Rogell
+ */
+public final class ObjectIdIndex {
+
+    private static final int FAN_OUT = 256;
+    private static final int PACK_STAMP = FAN_OUT;
+
+    private final Path objectsDir;
+    private final Path file;
+    private long[] bits;
+    private long count;
+    private final long[] stamps = new long[FAN_OUT + 1];
+    private final Set<String> packs = new HashSet<>();
+    private boolean dirty;
+
+    private ObjectIdIndex(final Path objectsDir, final Path file, final long capacity) {
+        this.objectsDir = objectsDir;
+        this.file = file;
+        this.bits = new long[words(capacity)];
+    }
+
+    /**
+     * Loads the index of an objects directory, or builds it if none was saved, and
+     * brings it up to date with the directory.
+     * @param objectsDir the objects directory to index
+     * @param file the file the index is persisted in
+     * @return the up-to-date index
+     * @throws IOException if the objects directory cannot be scanned
+     */
+    public static ObjectIdIndex open(final Path objectsDir, final Path file) throws IOException {
+        ObjectIdIndex index = null;
+        if (Files.exists(file)) {
+            try {
+                index = load(objectsDir, file);
+            } catch (IOException e) {
+                IoUtils.INSTANCE.trace(AppConfig.ERROR_OBJECT_INDEX + e.getMessage());
+            }
+        }
+        if (index == null) {
+            index = new ObjectIdIndex(objectsDir, file, AppConfig.OBJECT_INDEX_MIN_CAPACITY);
+        }
+        index.refresh();
+        return index;
+    }
+
+    /**
+     * Checks whether an object may be present.
+     * @param id the object ID
+     * @return false if the object is definitely absent, true if it may be present
+     */
+    public synchronized boolean mightContain(final AnyObjectId id) {
+        long[] hashes = hashes(id);
+        long size = (long) bits.length * Long.SIZE;
+        for (int i = 0; i < AppConfig.OBJECT_INDEX_HASHES; i++) {
+            long bit = Math.floorMod(hashes[0] + i * hashes[1], size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records an object added to the objects directory. Only an object that sets a new
+     * bit is counted, so objects of a directory scanned again, such as one that was
+     * still changing at the last refresh, do not grow the filter.
+     * @param id the object ID
+     */
+    public synchronized void add(final AnyObjectId id) {
+        long[] hashes = hashes(id);
+        long size = (long) bits.length * Long.SIZE;
+        boolean added = false;
+        for (int i = 0; i < AppConfig.OBJECT_INDEX_HASHES; i++) {
+            long bit = Math.floorMod(hashes[0] + i * hashes[1], size);
+            int word = (int) (bit >>> 6);
+            added |= (bits[word] & (1L << bit)) == 0;
+            bits[word] |= 1L << bit;
+        }
+        if (added) {
+            count++;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns the number of distinct objects recorded, as far as the filter can tell.
+     * @return the object count
+     */
+    synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Records every object of a pack added to the objects directory.
+     * @param indexFile the pack's index file
+     * @throws IOException if the pack index cannot be read
+     */
+    public synchronized void addPack(final Path indexFile) throws IOException {
+        if (!packs.add(indexFile.getFileName().toString())) {
+            return;
+        }
+        PackIndex packIndex = PackIndex.open(indexFile.toFile());
+        for (PackIndex.MutableEntry entry : packIndex) {
+            add(entry.toObjectId());
+        }
+        dirty = true;
+    }
+
+    /**
+     * Adds the objects of every fan-out or pack directory modified since it was last
+     * scanned. The filter is rebuilt at twice the size once it holds more objects than
+     * it was sized for.
+     * @throws IOException if a directory cannot be scanned
+     */
+    public synchronized void refresh() throws IOException {
+        for (int i = 0; i < FAN_OUT; i++) {
+            Path dir = objectsDir.resolve(String.format("%02x", i));
+            long stamp = stamp(dir);
+            if (stamp == stamps[i]) {
+                continue;
+            }
+            stamps[i] = settled(stamp);
+            dirty = true;
+            if (stamp == 0) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                String prefix = dir.getFileName().toString();
+                files.map(path -> prefix + path.getFileName().toString())
+                    .filter(ObjectId::isId)
+                    .forEach(name -> add(ObjectId.fromString(name)));
+            }
+        }
+
+        Path packDir = objectsDir.resolve(AppConfig.PACK_DIR);
+        long stamp = stamp(packDir);
+        if (stamp != stamps[PACK_STAMP]) {
+            stamps[PACK_STAMP] = settled(stamp);
+            dirty = true;
+            if (stamp != 0) {
+                try (Stream<Path> files = Files.list(packDir)) {
+                    for (Path path : (Iterable<Path>) files::iterator) {
+                        if (path.getFileName().toString().endsWith(AppConfig.PACK_INDEX_SUFFIX)) {
+                            try {
+                                addPack(path);
+                            } catch (IOException e) {
+                                packs.remove(path.getFileName().toString());
+                                stamps[PACK_STAMP] = -1;
+                                IoUtils.INSTANCE.trace(AppConfig.ERROR_OBJECT_INDEX + e.getMessage());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (count > capacity()) {
+            bits = new long[words(count * 2)];
+            count = 0;
+            Arrays.fill(stamps, 0);
+            packs.clear();
+            refresh();
+        }
+    }
+
+    /**
+     * Writes the index to its file if it changed since it was loaded or last saved.
+     * Failures are traced; a missing index is rebuilt on the next run.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), null);
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmpFile), Settings.INSTANCE.getBufferSize()))) {
+                out.writeUTF(AppConfig.OBJECT_INDEX_MAGIC);
+                out.writeLong(count);
+                for (long stamp : stamps) {
+                    out.writeLong(stamp);
+                }
+                out.writeInt(packs.size());
+                for (String pack : packs) {
+                    out.writeUTF(pack);
+                }
+                out.writeInt(bits.length);
+                for (long word : bits) {
+                    out.writeLong(word);
+                }
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_OBJECT_INDEX + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a saved index.
+     * @param objectsDir the indexed objects directory
+     * @param file the saved index
+     * @return the loaded index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    private static ObjectIdIndex load(final Path objectsDir, final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file), Settings.INSTANCE.getBufferSize()))) {
+            if (!AppConfig.OBJECT_INDEX_MAGIC.equals(in.readUTF())) {
+                throw new IOException(AppConfig.ERROR_UNEXPECTED_FILE_FORMAT + file);
+            }
+            long count = in.readLong();
+            long[] stamps = new long[FAN_OUT + 1];
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = in.readLong();
+            }
+            Set<String> packs = new HashSet<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                packs.add(in.readUTF());
+            }
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            ObjectIdIndex index = new ObjectIdIndex(objectsDir, file, 0);
+            index.bits = bits;
+            index.count = count;
+            System.arraycopy(stamps, 0, index.stamps, 0, stamps.length);
+            index.packs.addAll(packs);
+            return index;
+        }
+    }
+
+    /**
+     * Returns the number of objects the filter is sized for.
+     * @return the capacity
+     */
+    private long capacity() {
+        return (long) bits.length * Long.SIZE / AppConfig.OBJECT_INDEX_BITS_PER_ENTRY;
+    }
+
+    /**
+     * Returns the number of words needed for a filter sized for the given object count.
+     * @param capacity the number of objects
+     * @return the number of 64-bit words, at least one
+     */
+    private static int words(final long capacity) {
+        long bitCount = Math.max(capacity, AppConfig.OBJECT_INDEX_MIN_CAPACITY)
+            * AppConfig.OBJECT_INDEX_BITS_PER_ENTRY;
+        return (int) Math.min(Integer.MAX_VALUE - 8, (bitCount + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Derives the two base hashes of an object ID. Object IDs are already uniformly
+     * distributed, so their leading and following 64 bits are used directly.
+     * @param id the object ID
+     * @return two hash values for double hashing
+     */
+    private static long[] hashes(final AnyObjectId id) {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(raw, 0);
+        return new long[] {NB.decodeInt64(raw, 0), NB.decodeInt64(raw, 8) | 1};
+    }
+
+    /**
+     * Returns the stamp to remember for a scanned directory. A directory modified too
+     * recently may still change within the same timestamp, so it is remembered as
+     * unscanned and rescanned next time.
+     * @param stamp the directory's modification time
+     * @return the stamp, or -1 to force a rescan
+     */
+    private static long settled(final long stamp) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        return stamp != 0 && now - stamp < AppConfig.OBJECT_INDEX_RACY_NANOS ? -1 : stamp;
+    }
+
+    /**
+     * Returns the modification time of a directory.
+     * @param dir the directory
+     * @return the modification time in nanoseconds, or 0 if the directory does not exist
+     * @throws IOException if the directory cannot be read
+     */
+    private static long stamp(final Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        return Files.getLastModifiedTime(dir).to(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,276 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.Settings;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Verifies object files received into an objects directory on the shared CPU
+ * workers, so checking overlaps with copying the remaining files. Loose objects are
+ * inflated and hashed as they are read and compared with the ID in their path; pack,
+ * index, reverse index and bitmap files are checked against their trailing checksum,
+ * and an index must record the checksum of its pack. Nothing is buffered whole.
+ * @author Leif Rogell
+ */
+public final class ObjectVerifier implements AutoCloseable {
+
+    private static final int CHECKSUM_LENGTH = Constants.OBJECT_ID_LENGTH;
+    private static final List<String> PACK_FILE_SUFFIXES = List.of(AppConfig.PACK_SUFFIX,
+                                                                   AppConfig.PACK_INDEX_SUFFIX,
+                                                                   AppConfig.PACK_REVERSE_INDEX_SUFFIX,
+                                                                   AppConfig.PACK_BITMAP_SUFFIX);
+
+    private final List<Future<String>> results = new ArrayList<>();
+    private final List<String> paths = new ArrayList<>();
+
+    /**
+     * Schedules verification of a file received into an objects directory.
+     * Files other than loose objects and pack files are not checked. Files may be
+     * submitted from several copying threads at once.
+     * @param objectsDir the objects directory the file was received into
+     * @param file the received file
+     */
+    public synchronized void submit(final Path objectsDir, final Path file) {
+        results.add(SharedExecutor.INSTANCE.submit(SharedExecutor.Resource.CPU, () -> verify(objectsDir, file)));
+        paths.add(objectsDir.relativize(file).toString());
+    }
+
+    /**
+     * Waits for all scheduled verifications. Every failure is reported as
+     * {@code <path>: <reason>}, with the path relative to the objects directory,
+     * including verifications that failed unexpectedly.
+     * @return a description of every file that failed verification, empty if all passed
+     * @throws IOException if waiting was interrupted
+     */
+    public synchronized List<String> awaitFailures() throws IOException {
+        List<String> failures = new ArrayList<>();
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    String failure = results.get(i).get();
+                    if (failure != null) {
+                        failures.add(failure);
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(paths.get(i) + ": " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+        }
+        results.clear();
+        paths.clear();
+        return failures;
+    }
+
+    /**
+     * Returns the files to remove along with a file that failed verification. A pack
+     * is unusable without its indexes and they are useless without it, so a failing
+     * pack, index, reverse index or bitmap takes the other files of its pack along.
+     * @param file the file that failed verification
+     * @return the file itself, and for pack files every file of the same pack
+     */
+    public static List<Path> withCompanions(final Path file) {
+        String name = file.getFileName().toString();
+        for (String suffix : PACK_FILE_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                String base = name.substring(0, name.length() - suffix.length());
+                List<Path> files = new ArrayList<>();
+                for (String companion : PACK_FILE_SUFFIXES) {
+                    files.add(file.resolveSibling(base + companion));
+                }
+                return files;
+            }
+        }
+        return List.of(file);
+    }
+
+    @Override
+    public void close() {
+        for (Future<String> result : results) {
+            result.cancel(true);
+        }
+    }
+
+    /**
+     * Verifies one file.
+     * @param objectsDir the objects directory the file was received into
+     * @param file the received file
+     * @return a description of the failure, or null if the file is intact
+     */
+    private static String verify(final Path objectsDir, final Path file) {
+        String name = file.getFileName().toString();
+        String relative = objectsDir.relativize(file).toString();
+        try {
+            if (name.endsWith(AppConfig.PACK_SUFFIX)
+                || name.endsWith(AppConfig.PACK_INDEX_SUFFIX)
+                || name.endsWith(AppConfig.PACK_REVERSE_INDEX_SUFFIX)
+                || name.endsWith(AppConfig.PACK_BITMAP_SUFFIX)) {
+                return verifyTrailer(file, relative);
+            }
+            String parent = file.getParent().getFileName().toString();
+            if (parent.length() == 2 && ObjectId.isId(parent + name)) {
+                return verifyLoose(file, ObjectId.fromString(parent + name), relative);
+            }
+            return null;
+        } catch (IOException e) {
+            return relative + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Inflates a loose object and compares the hash of its content with its ID.
+     * @param file the loose object file
+     * @param expected the ID given by the file's path
+     * @param relative the path to report
+     * @return a description of the mismatch, or null if the object is intact
+     * @throws IOException if the object cannot be read or inflated
+     */
+    private static String verifyLoose(final Path file,
+                                      final ObjectId expected,
+                                      final String relative) throws IOException {
+        MessageDigest digest = sha1();
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(file))) {
+            update(digest, in, Long.MAX_VALUE);
+        }
+        ObjectId actual = ObjectId.fromRaw(digest.digest());
+        return actual.equals(expected) ? null : mismatch(relative, expected, actual);
+    }
+
+    /**
+     * Checks the trailing checksum of a pack file or one of its indexes. For an index,
+     * the pack checksum it records must also match the pack next to it, if present.
+     * @param file the pack or index file
+     * @param relative the path to report
+     * @return a description of the mismatch, or null if the file is intact
+     * @throws IOException if the file cannot be read
+     */
+    private static String verifyTrailer(final Path file, final String relative) throws IOException {
+        long size = Files.size(file);
+        if (size < CHECKSUM_LENGTH) {
+            return relative + ": " + AppConfig.ERROR_UNEXPECTED_FILE_FORMAT + size + " bytes";
+        }
+        MessageDigest digest = sha1();
+        byte[] packChecksum = new byte[CHECKSUM_LENGTH];
+        byte[] trailer = new byte[CHECKSUM_LENGTH];
+        String name = file.getFileName().toString();
+        boolean isIndex = (name.endsWith(AppConfig.PACK_INDEX_SUFFIX)
+                           || name.endsWith(AppConfig.PACK_REVERSE_INDEX_SUFFIX))
+            && size >= 2 * CHECKSUM_LENGTH;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),
+                                                                              Settings.INSTANCE.getBufferSize()))) {
+            long body = size - CHECKSUM_LENGTH;
+            if (isIndex) {
+                update(digest, in, body - CHECKSUM_LENGTH);
+                in.readFully(packChecksum);
+                digest.update(packChecksum);
+            } else {
+                update(digest, in, body);
+            }
+            in.readFully(trailer);
+        }
+        ObjectId expected = ObjectId.fromRaw(trailer);
+        ObjectId actual = ObjectId.fromRaw(digest.digest());
+        if (!actual.equals(expected)) {
+            return mismatch(relative, expected, actual);
+        }
+        if (name.endsWith(AppConfig.PACK_INDEX_SUFFIX)) {
+            return verifyPackChecksum(file, ObjectId.fromRaw(packChecksum), relative);
+        }
+        return null;
+    }
+
+    /**
+     * Compares the pack checksum recorded in an index with the trailer of its pack.
+     * @param index the index file
+     * @param recorded the pack checksum recorded in the index
+     * @param relative the path to report
+     * @return a description of the mismatch, or null if they match or the pack is absent
+     * @throws IOException if the pack cannot be read
+     */
+    private static String verifyPackChecksum(final Path index,
+                                             final ObjectId recorded,
+                                             final String relative) throws IOException {
+        String name = index.getFileName().toString();
+        Path pack = index.resolveSibling(name.substring(0, name.length() - AppConfig.PACK_INDEX_SUFFIX.length())
+                                         + AppConfig.PACK_SUFFIX);
+        if (!Files.exists(pack) || Files.size(pack) < CHECKSUM_LENGTH) {
+            return null;
+        }
+        byte[] trailer = new byte[CHECKSUM_LENGTH];
+        try (FileChannel channel = FileChannel.open(pack)) {
+            channel.read(ByteBuffer.wrap(trailer), channel.size() - CHECKSUM_LENGTH);
+        }
+        ObjectId packTrailer = ObjectId.fromRaw(trailer);
+        return packTrailer.equals(recorded) ? null : mismatch(relative, recorded, packTrailer);
+    }
+
+    /**
+     * Feeds up to the given number of bytes from a stream into a digest.
+     * @param digest the digest to update
+     * @param in the stream to read
+     * @param length the number of bytes to read, or {@link Long#MAX_VALUE} for all
+     * @throws IOException if the stream cannot be read or ends early
+     */
+    private static void update(final MessageDigest digest,
+                               final InputStream in,
+                               final long length) throws IOException {
+        byte[] buffer = new byte[Settings.INSTANCE.getBufferSize()];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                if (length == Long.MAX_VALUE) {
+                    return;
+                }
+                throw new IOException(AppConfig.ERROR_UNEXPECTED_FILE_FORMAT + "truncated file");
+            }
+            digest.update(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Formats a checksum mismatch for the failure report.
+     * @param relative the path of the file
+     * @param expected the expected ID or checksum
+     * @param actual the computed ID or checksum
+     * @return the report line
+     */
+    private static String mismatch(final String relative, final ObjectId expected, final ObjectId actual) {
+        return relative + ": " + AppConfig.ERROR_HASH_MISMATCH + actual.name() + " != " + expected.name();
+    }
+
+    /**
+     * Creates a SHA-1 digest.
+     * @return a new digest
+     */
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import org.eclipse.jgit.revwalk.RevObject;
+
+import java.io.IOException;
+
+/**
+ * Callback receiving Git objects one at a time as they are enumerated,
+ * so callers can stream results instead of collecting them in memory.
+ * @author Leif Rogell
+ */
+@FunctionalInterface
+public interface ObjectVisitor {
+
+    /**
+     * Called once for every enumerated object.
+     * @param object the visited commit, tree, blob or tag
+     * @throws IOException if the visitor fails to process the object
+     */
+    void visit(RevObject object) throws IOException;
+}
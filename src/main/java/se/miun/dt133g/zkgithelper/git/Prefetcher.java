@@ -0,0 +1,201 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.connection.GitConnection;
+import se.miun.dt133g.zkgithelper.files.CacheManager;
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.SessionAbortedException;
+import se.miun.dt133g.zkgithelper.support.Settings;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton daemon that keeps the temporary repositories of configured working
+ * repositories warm, like git's own maintenance prefetch. Every pass visits each
+ * {@code zkgit::} remote of each repository, asks the ZK client for changes and stages
+ * them into {@code zkgit-tmp-<repo>} and {@code refs/prefetch/remotes/<remote>/}.
+ * The remotes of a pass are prefetched side by side on the shared executor's socket
+ * workers, and the next pass starts once all of them are done.
+ * A remote is prefetched at most once per {@code zkgit.prefetchInterval}, tracked by a
+ * stamp file shared with other helpers, and no new cache directory is created while
+ * the caches exceed their budget. Each remote is prefetched by its own handler and
+ * connection, whose I/O ends the prefetch instead of the daemon on a fatal error.
+ * Process-wide settings and the cache configuration are read from the first repository.
+ * @author Leif Rogell
+ */
+public final class Prefetcher {
+
+    public static final Prefetcher INSTANCE = new Prefetcher();
+
+    private Prefetcher() { }
+
+    /**
+     * Runs prefetch passes over the given working repositories until interrupted.
+     * @param dirs the working directories of the repositories to prefetch
+     */
+    public void run(final List<String> dirs) {
+        IoUtils.INSTANCE.trace(AppConfig.STATUS_PREFETCH_START + dirs);
+        RepoMaintenance.INSTANCE.setInProcess(true);
+        if (!dirs.isEmpty()) {
+            configure(dirs.get(0));
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            try (SharedExecutor.Group group = SharedExecutor.INSTANCE.newGroup()) {
+                for (String dir : dirs) {
+                    prefetchRepository(dir, group);
+                }
+                group.await();
+            } catch (IOException e) {
+                IoUtils.INSTANCE.trace(AppConfig.ERROR_PREFETCH_FAILED + e.getMessage());
+            }
+            try {
+                Thread.sleep(AppConfig.PREFETCH_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Applies the process-wide settings and cache configuration of the first working
+     * repository once, for the whole lifetime of the daemon.
+     * @param dir the working directory of the repository
+     */
+    private void configure(final String dir) {
+        try (RepositoryPool.Handle handle = open(dir)) {
+            Config config = Settings.layer(handle.getRepository().getConfig());
+            Settings.INSTANCE.configure(config);
+            CacheManager.INSTANCE.configure(config);
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_PREFETCH_FAILED + dir + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prefetches every {@code zkgit::} remote of a working repository on the shared
+     * executor's socket workers.
+     * @param dir the working directory of the repository
+     * @param group the group of the current pass
+     */
+    private void prefetchRepository(final String dir, final SharedExecutor.Group group) {
+        Map<String, String> remotes;
+        long intervalMillis;
+        try (RepositoryPool.Handle handle = open(dir)) {
+            Repository repository = handle.getRepository();
+            remotes = zkgitRemotes(repository.getConfig());
+            intervalMillis = TimeUnit.SECONDS.toMillis(
+                Settings.layer(repository.getConfig()).getTimeUnit(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                                                   AppConfig.CONFIG_KEY_PREFETCH_INTERVAL,
+                                                                   AppConfig.PREFETCH_INTERVAL_SECONDS,
+                                                                   TimeUnit.SECONDS));
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_PREFETCH_FAILED + dir + " " + e.getMessage());
+            return;
+        }
+        for (Map.Entry<String, String> remote : remotes.entrySet()) {
+            group.submit(SharedExecutor.Resource.SOCKET, () -> {
+                    prefetchRemote(dir, remote.getKey(), remote.getValue(), intervalMillis);
+                    return null;
+                });
+        }
+    }
+
+    /**
+     * Prefetches one remote unless it was prefetched within the interval, the client
+     * is not running, or a new cache directory would exceed the budget. The interval
+     * only starts once a prefetch succeeded, so a failed one is retried on the next pass.
+     * @param dir the working directory of the repository
+     * @param remote the remote name
+     * @param url the remote URL
+     * @param intervalMillis the minimum time between two prefetches of the remote
+     */
+    private void prefetchRemote(final String dir,
+                                final String remote,
+                                final String url,
+                                final long intervalMillis) {
+        IoUtils io = new IoUtils(InputStream.nullInputStream(), OutputStream.nullOutputStream());
+        GitConnection connection = new GitConnection(io);
+        GitHandler handler = new GitHandler(connection, io);
+        String repoName = handler.extractRepoName(url);
+        handler.setRepoName(repoName);
+        handler.setRepoPath(dir);
+        Path tmpDir = CacheManager.INSTANCE.getRoot().resolve(AppConfig.TMP_PREFIX + repoName);
+        Path stamp = tmpDir.resolve(AppConfig.PREFETCH_STAMP_FILE);
+        try {
+            if (Files.exists(stamp)
+                && System.currentTimeMillis() - Files.getLastModifiedTime(stamp).toMillis() < intervalMillis) {
+                return;
+            }
+            connection.setDstPort(url);
+            connection.configure(handler.getConfig());
+            if (!connection.isAvailable()) {
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_PREFETCH_SKIPPED + AppConfig.ERROR_CLIENT_NOT_RUNNING);
+                return;
+            }
+            if (!Files.isDirectory(tmpDir) && CacheManager.INSTANCE.isOverBudget()) {
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_PREFETCH_SKIPPED + tmpDir);
+                return;
+            }
+            Files.createDirectories(tmpDir);
+            handler.setTmpRepoPath(tmpDir.toString());
+            if (handler.prefetch(remote)) {
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_PREFETCH_STAGED + remote + " " + dir);
+                if (Files.exists(stamp)) {
+                    Files.setLastModifiedTime(stamp, FileTime.fromMillis(System.currentTimeMillis()));
+                } else {
+                    Files.createFile(stamp);
+                }
+            }
+        } catch (IOException | SessionAbortedException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_PREFETCH_FAILED + dir + " " + e.getMessage());
+        } finally {
+            handler.close();
+        }
+    }
+
+    /**
+     * Opens the repository of a working directory, whose {@code .git} may be a directory
+     * or, for a submodule, a file pointing at one.
+     * @param dir the working directory
+     * @return a handle to the repository, shared through the pool
+     * @throws IOException if the directory holds no repository
+     */
+    static RepositoryPool.Handle open(final String dir) throws IOException {
+        return RepositoryPool.INSTANCE.open(new FileRepositoryBuilder()
+            .setWorkTree(new File(dir))
+            .setMustExist(true));
+    }
+
+    /**
+     * Finds the remotes of a repository that point at the ZK client.
+     * @param config the repository configuration
+     * @return remote names mapped to their URLs without the {@code zkgit::} prefix
+     */
+    static Map<String, String> zkgitRemotes(final Config config) {
+        Map<String, String> remotes = new LinkedHashMap<>();
+        for (String remote : config.getSubsections(ConfigConstants.CONFIG_REMOTE_SECTION)) {
+            String url = config.getString(ConfigConstants.CONFIG_REMOTE_SECTION, remote,
+                                          ConfigConstants.CONFIG_KEY_URL);
+            if (url != null && url.startsWith(AppConfig.ZKGIT_URL_PREFIX)) {
+                remotes.put(remote, url.substring(AppConfig.ZKGIT_URL_PREFIX.length()));
+            }
+        }
+        return remotes;
+    }
+}
@@ -0,0 +1,136 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.BoundedPipe;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Producer/consumer pipeline for a streamed push. The pack of the pushed objects is
+ * generated from the working repository into a bounded pipe while the consumer sends
+ * it to the ZK client, so encryption starts as soon as the first block is written and
+ * a slow client throttles pack generation. Staging the push into the temporary
+ * repository runs alongside; the stream only ends cleanly once both the pack and the
+ * staging push have succeeded, otherwise the consumer sees the failure and aborts.
+ * The caller unstages a push the client did not accept.
+ * @author Leif Rogell
+ */
+public final class PushPipeline {
+
+    private final Repository repository;
+
+    /**
+     * Creates a pipeline reading objects from a repository.
+     * @param repository the working repository the push originates from
+     */
+    public PushPipeline(final Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Runs the pipeline to completion.
+     * @param want the pushed commit
+     * @param have commits the client already holds, left out of the pack
+     * @param stage the push into the temporary repository, returning true on success
+     * @param consumer sends the pack stream to the client and returns the client's response
+     * @return the client's response, or null if staging failed
+     * @throws IOException if the pipeline was interrupted
+     */
+    public String run(final ObjectId want,
+                      final Collection<ObjectId> have,
+                      final Callable<Boolean> stage,
+                      final Function<InputStream, String> consumer) throws IOException {
+        BoundedPipe pipe = new BoundedPipe(AppConfig.STREAM_BLOCK_SIZE, AppConfig.STREAM_QUEUE_CAPACITY);
+        try (SharedExecutor.Group group = SharedExecutor.INSTANCE.newGroup()) {
+            Future<Boolean> staged = group.submit(SharedExecutor.Resource.DISK, () -> {
+                    try {
+                        return stage.call();
+                    } catch (Exception e) {
+                        throw new IOException(AppConfig.ERROR_STAGING_FAILED + e.getMessage(), e);
+                    }
+                });
+            group.submit(SharedExecutor.Resource.CPU, () -> {
+                    produce(pipe, want, have, staged);
+                    return null;
+                });
+            Future<String> response = group.submit(SharedExecutor.Resource.SOCKET, () -> {
+                    try (InputStream source = pipe.source()) {
+                        return consumer.apply(source);
+                    }
+                });
+            group.await();
+            return staged.get() ? response.get() : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+        } catch (ExecutionException e) {
+            throw new IOException(AppConfig.ERROR_STAGING_FAILED + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Writes the pack into the pipe and ends the stream once staging has finished.
+     * Any failure is passed to the consumer instead of the end marker.
+     * @param pipe the pipe to write to
+     * @param want the pushed commit
+     * @param have commits left out of the pack
+     * @param staged the result of the staging push
+     */
+    private void produce(final BoundedPipe pipe,
+                         final ObjectId want,
+                         final Collection<ObjectId> have,
+                         final Future<Boolean> staged) {
+        OutputStream out = pipe.sink();
+        try {
+            writePack(want, have, out);
+            if (!staged.get()) {
+                throw new IOException(AppConfig.ERROR_STAGING_FAILED + want.name());
+            }
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pipe.fail(e);
+        } catch (IOException | ExecutionException e) {
+            pipe.fail(e);
+        }
+    }
+
+    /**
+     * Writes a self-contained pack of the objects reachable from the wanted commit
+     * but not from the commits the client already holds.
+     * @param want the pushed commit
+     * @param have commits left out of the pack
+     * @param out the stream receiving the pack
+     * @throws IOException if an object cannot be read or written
+     */
+    private void writePack(final ObjectId want,
+                           final Collection<ObjectId> have,
+                           final OutputStream out) throws IOException {
+        Set<ObjectId> haves = new HashSet<>();
+        for (ObjectId id : have) {
+            if (repository.getObjectDatabase().has(id)) {
+                haves.add(id);
+            }
+        }
+        try (PackWriter writer = new PackWriter(repository)) {
+            writer.preparePack(NullProgressMonitor.INSTANCE, Set.of(want), haves);
+            writer.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, out);
+        }
+    }
+}
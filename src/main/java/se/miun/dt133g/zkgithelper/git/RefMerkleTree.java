@@ -0,0 +1,256 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.Hex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Merkle tree over the branches and tags of a repository, for finding which refs
+ * differ from the ZK client's copy in a logarithmic number of exchanges.
+ * Refs are spread over a fixed number of buckets by the hash of their name, so adding
+ * or removing a ref changes a single path to the root. Each ref's first-parent history
+ * is further split into fixed-length segments counted from the root commit, so new
+ * commits only change the last segment, and the first differing segment tells the
+ * client from where history must be sent.
+ * @author Leif Rogell
+ */
+public final class RefMerkleTree {
+
+    /**
+     * One round of the comparison with the client.
+     */
+    @FunctionalInterface
+    public interface Exchange {
+        /**
+         * Sends node hashes to the client and returns the keys it holds differently.
+         * @param kind {@code level}, {@code bucket} or {@code segments}
+         * @param scope the tree depth, bucket number or ref name the keys belong to
+         * @param nodes node keys mapped to their hex hashes
+         * @return a modifiable set of the keys whose hashes differ, including keys only
+         *         the client has, or null if the client does not support the comparison
+         * @throws IOException if the exchange fails
+         */
+        Set<String> differing(String kind, String scope, Map<String, String> nodes) throws IOException;
+    }
+
+    private final Repository repository;
+    private final List<Map<String, ObjectId>> buckets = new ArrayList<>();
+    private final List<byte[][]> levels = new ArrayList<>();
+
+    /**
+     * Builds the tree over the branches and tags of a repository.
+     * @param repository the repository
+     * @throws IOException if the refs cannot be read
+     */
+    public RefMerkleTree(final Repository repository) throws IOException {
+        this.repository = repository;
+        for (int i = 0; i < AppConfig.MERKLE_BUCKETS; i++) {
+            buckets.add(new TreeMap<>());
+        }
+        for (Ref ref : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS, Constants.R_TAGS)) {
+            if (ref.getObjectId() != null) {
+                buckets.get(bucketOf(ref.getName())).put(ref.getName(), ref.getObjectId());
+            }
+        }
+
+        byte[][] level = new byte[AppConfig.MERKLE_BUCKETS][];
+        for (int i = 0; i < level.length; i++) {
+            MessageDigest digest = sha256();
+            digest.update((byte) 0);
+            for (Map.Entry<String, ObjectId> entry : buckets.get(i).entrySet()) {
+                digest.update(leafHash(entry.getKey(), entry.getValue()));
+            }
+            level[i] = digest.digest();
+        }
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] parents = new byte[level.length / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                MessageDigest digest = sha256();
+                digest.update((byte) 1);
+                digest.update(level[2 * i]);
+                digest.update(level[2 * i + 1]);
+                parents[i] = digest.digest();
+            }
+            levels.add(0, parents);
+            level = parents;
+        }
+    }
+
+    /**
+     * Returns the root hash, which covers every branch and tag.
+     * @return the hex root hash
+     */
+    public String getRoot() {
+        return Hex.toHexString(levels.get(0)[0]);
+    }
+
+    /**
+     * Compares the tree with the client's, descending only into differing subtrees.
+     * @param exchange the comparison rounds with the client
+     * @return each differing ref mapped to its first differing history segment (0 if
+     *         the whole history may differ), empty if nothing differs, or null if the
+     *         client does not support the comparison
+     * @throws IOException if an exchange or history walk fails
+     */
+    public Map<String, Integer> diff(final Exchange exchange) throws IOException {
+        Map<String, String> root = Collections.singletonMap("0", getRoot());
+        Set<String> differing = exchange.differing(AppConfig.MERKLE_LEVEL, "0", root);
+        if (differing == null) {
+            return null;
+        }
+        differing.retainAll(root.keySet());
+        for (int depth = 1; depth < levels.size() && !differing.isEmpty(); depth++) {
+            Map<String, String> nodes = new LinkedHashMap<>();
+            for (String parent : differing) {
+                int index = Integer.parseInt(parent);
+                nodes.put(Integer.toString(2 * index), Hex.toHexString(levels.get(depth)[2 * index]));
+                nodes.put(Integer.toString(2 * index + 1), Hex.toHexString(levels.get(depth)[2 * index + 1]));
+            }
+            differing = exchange.differing(AppConfig.MERKLE_LEVEL, Integer.toString(depth), nodes);
+            if (differing == null) {
+                return null;
+            }
+            differing.retainAll(nodes.keySet());
+        }
+
+        Map<String, Integer> changed = new TreeMap<>();
+        for (String bucket : differing) {
+            Map<String, String> refs = new LinkedHashMap<>();
+            for (Map.Entry<String, ObjectId> entry : buckets.get(Integer.parseInt(bucket)).entrySet()) {
+                refs.put(entry.getKey(), Hex.toHexString(leafHash(entry.getKey(), entry.getValue())));
+            }
+            Set<String> refNames = exchange.differing(AppConfig.MERKLE_BUCKET, bucket, refs);
+            if (refNames == null) {
+                return null;
+            }
+            for (String refName : refNames) {
+                changed.put(refName, firstDifferingSegment(refName, exchange));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the first history segment of a ref that the client holds differently.
+     * @param refName the ref name
+     * @param exchange the comparison rounds with the client
+     * @return the segment index, 0 if the ref is not a local branch with history
+     * @throws IOException if the history cannot be walked
+     */
+    private int firstDifferingSegment(final String refName, final Exchange exchange) throws IOException {
+        ObjectId id = buckets.get(bucketOf(refName)).get(refName);
+        if (id == null) {
+            return 0;
+        }
+        List<String> segments = segments(id);
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < segments.size(); i++) {
+            nodes.put(Integer.toString(i), segments.get(i));
+        }
+        Set<String> differing = exchange.differing(AppConfig.MERKLE_SEGMENTS, refName, nodes);
+        if (differing == null) {
+            return 0;
+        }
+        differing.retainAll(nodes.keySet());
+        int first = segments.size();
+        for (String segment : differing) {
+            first = Math.min(first, Integer.parseInt(segment));
+        }
+        return first;
+    }
+
+    /**
+     * Hashes the first-parent history of a commit in segments counted from its root.
+     * @param id the tip, peeled to a commit
+     * @return the hex hash of each segment, oldest first, empty if the tip is no commit
+     * @throws IOException if the history cannot be walked
+     */
+    private List<String> segments(final ObjectId id) throws IOException {
+        List<ObjectId> chain = new ArrayList<>();
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevObject tip = walk.peel(walk.parseAny(id));
+            if (!(tip instanceof RevCommit)) {
+                return Collections.emptyList();
+            }
+            walk.setRetainBody(false);
+            walk.setFirstParent(true);
+            walk.markStart((RevCommit) tip);
+            for (RevCommit commit : walk) {
+                chain.add(commit.copy());
+            }
+        }
+        Collections.reverse(chain);
+
+        List<String> segments = new ArrayList<>();
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for (int start = 0; start < chain.size(); start += AppConfig.MERKLE_SEGMENT_LENGTH) {
+            MessageDigest digest = sha256();
+            int end = Math.min(chain.size(), start + AppConfig.MERKLE_SEGMENT_LENGTH);
+            for (ObjectId commit : chain.subList(start, end)) {
+                commit.copyRawTo(raw, 0);
+                digest.update(raw);
+            }
+            segments.add(Hex.toHexString(digest.digest()));
+        }
+        return segments;
+    }
+
+    /**
+     * Hashes one ref.
+     * @param name the ref name
+     * @param id the object the ref points at
+     * @return the leaf hash
+     */
+    private static byte[] leafHash(final String name, final ObjectId id) {
+        MessageDigest digest = sha256();
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(raw, 0);
+        digest.update(raw);
+        return digest.digest();
+    }
+
+    /**
+     * Returns the bucket of a ref, taken from the leading bits of the SHA-256 of its name.
+     * @param name the ref name
+     * @return the bucket number
+     */
+    private static int bucketOf(final String name) {
+        byte[] hash = sha256().digest(name.getBytes(StandardCharsets.UTF_8));
+        int value = (hash[0] & 0xff) << 8 | (hash[1] & 0xff);
+        return value % AppConfig.MERKLE_BUCKETS;
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     * @return a new digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
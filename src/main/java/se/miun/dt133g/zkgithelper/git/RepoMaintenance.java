@@ -0,0 +1,219 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import se.miun.dt133g.zkgithelper.files.CacheManager;
+import se.miun.dt133g.zkgithelper.files.RepoLock;
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+import se.miun.dt133g.zkgithelper.support.IoUtils;
+import se.miun.dt133g.zkgithelper.support.SharedExecutor;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Singleton scheduler for background maintenance of the temporary bare repository.
+ * Repacks loose objects and small packs into a single pack with reachability
+ * bitmaps and rewrites the commit-graph once configured thresholds are exceeded.
+ * Whether maintenance is due is estimated from the file system, like git's
+ * {@code gc --auto}; the repack itself runs in a detached
+ * {@code ZkGitHelper --maintenance <dir>} process, so git, which waits for the helper
+ * to exit, is never delayed by it. The prefetch daemon, which outlives its commands,
+ * repacks in process on the shared executor's disk workers instead.
+ * @author Leif Rogell
+ */
+public final class RepoMaintenance {
+
+    public static final RepoMaintenance INSTANCE = new RepoMaintenance();
+
+    private final Map<File, Future<?>> pending = new HashMap<>();
+    private volatile boolean inProcess;
+
+    private RepoMaintenance() { }
+
+    /**
+     * Makes maintenance run in this process rather than in a detached one, for
+     * long-running processes such as the prefetch daemon.
+     * @param inProcess true to repack in this process
+     */
+    public void setInProcess(final boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Starts maintenance of the given repository if it is due and not already pending.
+     * Repositories of different sessions are maintained side by side, within the shared
+     * executor's disk limit when run in process. An in-process task holds its own pool
+     * handle and cache pin, so the session that scheduled it can close the repository
+     * without waiting for it.
+     * @param repository the temporary bare repository to maintain
+     */
+    public synchronized void schedule(final Repository repository) {
+        File gitDir = repository.getDirectory();
+        if (!(repository instanceof FileRepository) || !isDue(gitDir)) {
+            return;
+        }
+        if (!inProcess) {
+            spawn(gitDir);
+            return;
+        }
+        pending.values().removeIf(Future::isDone);
+        if (pending.containsKey(gitDir)) {
+            return;
+        }
+        CacheManager.Pin pin = null;
+        RepositoryPool.Handle handle;
+        try {
+            pin = CacheManager.INSTANCE.pin(gitDir.toPath());
+            handle = RepositoryPool.INSTANCE.open(gitDir);
+        } catch (IOException e) {
+            if (pin != null) {
+                pin.close();
+            }
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_MAINTENANCE_FAILED + e.getMessage());
+            return;
+        }
+        CacheManager.Pin taskPin = pin;
+        pending.put(gitDir, SharedExecutor.INSTANCE.submit(
+            SharedExecutor.Resource.DISK, () -> {
+                try (taskPin; handle) {
+                    runIfNeeded((FileRepository) handle.getRepository());
+                }
+                return null;
+            }));
+    }
+
+    /**
+     * Maintains a repository in this process and returns when done; the entry point of
+     * the detached {@code --maintenance} process. The cache directory is pinned meanwhile
+     * so it is not evicted.
+     * @param gitDir the git directory of the temporary bare repository
+     */
+    @SuppressWarnings("try") // the pin is only held, never used
+    public void run(final String gitDir) {
+        try (CacheManager.Pin pin = CacheManager.INSTANCE.pin(Paths.get(gitDir));
+             RepositoryPool.Handle handle = RepositoryPool.INSTANCE.open(new File(gitDir))) {
+            if (handle.getRepository() instanceof FileRepository) {
+                runIfNeeded((FileRepository) handle.getRepository());
+            }
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_MAINTENANCE_FAILED + e.getMessage());
+        }
+    }
+
+    /**
+     * Estimates from the file system whether a repository needs maintenance, without
+     * opening any object. Loose objects are extrapolated from one fan-out directory.
+     * @param gitDir the git directory
+     * @return true if loose objects or packs exceed their thresholds, or objects
+     *         exist without a commit-graph
+     */
+    static boolean isDue(final File gitDir) {
+        File objects = new File(gitDir, AppConfig.GIT_OBJECTS);
+        String[] packs = new File(objects, AppConfig.PACK_DIR)
+            .list((dir, name) -> name.endsWith(AppConfig.PACK_SUFFIX));
+        String[] sample = new File(objects, AppConfig.MAINTENANCE_SAMPLE_DIR).list();
+        int packCount = packs == null ? 0 : packs.length;
+        long looseEstimate = sample == null ? 0 : (long) sample.length * AppConfig.MAINTENANCE_FAN_OUT;
+        if (looseEstimate >= AppConfig.MAINTENANCE_LOOSE_OBJECT_LIMIT
+            || packCount >= AppConfig.MAINTENANCE_PACK_FILE_LIMIT) {
+            return true;
+        }
+        return packCount > 0 && !new File(objects, AppConfig.MAINTENANCE_COMMIT_GRAPH_FILE).exists();
+    }
+
+    /**
+     * Starts a detached helper process that maintains the repository. Its output is
+     * discarded and it is never waited for.
+     * @param gitDir the git directory of the temporary bare repository
+     */
+    private void spawn(final File gitDir) {
+        String java = ProcessHandle.current().info().command()
+            .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String classPath = System.getProperty("java.class.path");
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (classPath.endsWith(AppConfig.JAR_EXTENSION) && !classPath.contains(File.pathSeparator)) {
+            command.add("-jar");
+            command.add(classPath);
+        } else {
+            command.add("-cp");
+            command.add(classPath);
+            command.add(AppConfig.MAIN_CLASS);
+        }
+        command.add(AppConfig.ARG_MAINTENANCE);
+        command.add(gitDir.getAbsolutePath());
+        try {
+            Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_MAINTENANCE_FAILED + e.getMessage());
+        }
+    }
+
+    /**
+     * Repacks the repository with bitmaps if loose objects or packs exceed their thresholds.
+     * Only one maintenance runs per repository, guarded by its own lock file. The repack
+     * deletes loose objects and old packs that commands may be copying, so it holds the
+     * repository lock exclusively; it only tries to take it, and a repository in use is
+     * left for a later run rather than making a command wait for the lock.
+     * @param repository the repository to maintain
+     */
+    private void runIfNeeded(final FileRepository repository) {
+        Path lockFile = repository.getDirectory().toPath().resolve(AppConfig.MAINTENANCE_LOCK_FILE);
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE);
+             FileLock maintenanceLock = channel.tryLock()) {
+            if (maintenanceLock == null) {
+                return;
+            }
+            GC gc = new GC(repository);
+            GC.RepoStatistics stats = gc.getStatistics();
+            boolean missingGraph = stats.numberOfPackedObjects > 0
+                && repository.getObjectDatabase().getCommitGraph().isEmpty();
+            if (stats.numberOfLooseObjects < AppConfig.MAINTENANCE_LOOSE_OBJECT_LIMIT
+                && stats.numberOfPackFiles < AppConfig.MAINTENANCE_PACK_FILE_LIMIT
+                && !missingGraph) {
+                return;
+            }
+
+            RepoLock.Lease lease = RepoLock.forDirectory(repository.getDirectory().toPath()).tryExclusive();
+            if (lease == null) {
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_MAINTENANCE_BUSY);
+                return;
+            }
+            try {
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_MAINTENANCE_START);
+                PackConfig packConfig = new PackConfig(repository);
+                packConfig.setBuildBitmaps(true);
+                gc.setPackConfig(packConfig);
+                gc.gc().get();
+                IoUtils.INSTANCE.trace(AppConfig.STATUS_MAINTENANCE_FINISH);
+            } finally {
+                lease.close();
+            }
+        } catch (IOException | ParseException | ExecutionException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_MAINTENANCE_FAILED + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Singleton pool of open repositories, shared by every handler, session and daemon in
+ * the process. Each repository is opened once, keyed by its canonical git directory,
+ * and handed out through reference-counted handles; it is closed when the last handle
+ * is. Sharing one {@link Repository} means its pack list, pack indexes and reverse
+ * indexes are loaded once instead of per caller, and the file descriptors of its packs
+ * are opened once.
+ * @author Leif Rogell
+ */
+public final class RepositoryPool {
+
+    public static final RepositoryPool INSTANCE = new RepositoryPool();
+
+    private final Map<File, Entry> open = new HashMap<>();
+
+    /**
+     * An open repository and the number of handles to it.
+     */
+    private static final class Entry {
+        private final Repository repository;
+        private int references;
+
+        Entry(final Repository repository) {
+            this.repository = repository;
+        }
+    }
+
+    /**
+     * Reference to a pooled repository, released by {@link #close()}. The repository
+     * itself must never be closed by the holder.
+     */
+    public final class Handle implements AutoCloseable {
+        private final File key;
+        private final Repository repository;
+        private boolean closed;
+
+        private Handle(final File key, final Repository repository) {
+            this.key = key;
+            this.repository = repository;
+        }
+
+        /**
+         * Returns the pooled repository.
+         * @return the repository, valid until this handle is closed
+         */
+        public Repository getRepository() {
+            return repository;
+        }
+
+        /**
+         * Releases the reference; closing a handle twice has no further effect.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(key);
+            }
+        }
+    }
+
+    private RepositoryPool() { }
+
+    /**
+     * Opens the repository at a git directory, such as a temporary bare repository.
+     * @param gitDir the git directory
+     * @return a handle to the shared repository
+     * @throws IOException if the repository cannot be opened
+     */
+    public Handle open(final File gitDir) throws IOException {
+        return open(new FileRepositoryBuilder().setGitDir(gitDir).readEnvironment());
+    }
+
+    /**
+     * Opens the repository described by a builder, or shares it if it is already open.
+     * The builder's settings only take effect for the caller that opens it first.
+     * @param builder the builder locating the repository
+     * @return a handle to the shared repository
+     * @throws IOException if the repository cannot be located or opened
+     */
+    public synchronized Handle open(final FileRepositoryBuilder builder) throws IOException {
+        builder.setup();
+        File key = builder.getGitDir().getCanonicalFile();
+        Entry entry = open.get(key);
+        if (entry == null) {
+            entry = new Entry(builder.build());
+            open.put(key, entry);
+        }
+        entry.references++;
+        return new Handle(key, entry.repository);
+    }
+
+    /**
+     * Drops one reference to a repository and closes it when none remain.
+     * @param key the canonical git directory
+     */
+    private synchronized void release(final File key) {
+        Entry entry = open.get(key);
+        if (entry != null && --entry.references == 0) {
+            open.remove(key);
+            entry.repository.close();
+        }
+    }
+}
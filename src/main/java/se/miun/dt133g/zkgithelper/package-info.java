@@ -4,6 +4,8 @@
  * network communication, and Git command processing for remote repository interaction.
  *
  * The application handles push, fetch, and list operations over a custom protocol,
- * intended for educational or limited-scope Git service scenarios.
+ * intended for educational or limited-scope Git service scenarios. Each remote helper
+ * session is a {@link se.miun.dt133g.zkgithelper.ZkGitSession}, which programs can also
+ * embed to run several sessions in one process.
  */
 package se.miun.dt133g.zkgithelper;
@@ -26,6 +26,14 @@ public final class AppConfig {
 
     public static final String COMMAND_CLEAN = "CLEAN";
 
+    public static final String COMMAND_STREAM = "STREAM";
+
+    public static final String COMMAND_COMMIT = "COMMIT";
+
+    public static final String COMMAND_ABORT = "ABORT";
+
+    public static final String COMMAND_MERKLE = "MERKLE";
+
     // Paths configuration
     public static final String JAVA_TMP = "java.io.tmpdir";
 
@@ -35,6 +43,46 @@ public final class AppConfig {
 
     public static final String ZIP_SUFFIX = ".zip";
 
+    public static final String ZKGIT_FILE_PREFIX = "zkgit";
+
+    public static final String LOCK_FILE_NAME = "zkgit.lock";
+
+    public static final String PAYLOAD_FILE = "zkgit-payload.zkgz";
+
+    public static final String BUNDLE_FILE = "zkgit-handoff.bundle";
+
+    public static final String BUNDLE_TIPS_FILE = "zkgit-bundle-tips";
+
+    public static final String BUNDLE_SUFFIX = ".bundle";
+
+    public static final String BUNDLE_REFSPEC = "+refs/*:refs/*";
+
+    public static final String PAYLOAD_MAGIC = "ZKGIT-PAYLOAD-1";
+
+    public static final String TMP_OBJECT_PREFIX = "tmp_obj_";
+
+    public static final String PARTIAL_SUFFIX = ".part";
+
+    public static final String JOURNAL_FILE = "zkgit-journal";
+
+    public static final String UPTODATE_FILE = "zkgit-uptodate";
+
+    public static final String OBJECT_INDEX_FILE = "zkgit-objects.bloom";
+
+    public static final String LOCAL_OBJECT_INDEX_FILE = "zkgit-objects-local.bloom";
+
+    public static final String OBJECT_INDEX_MAGIC = "ZKGIT-BLOOM-1";
+
+    public static final String PACK_DIR = "pack";
+
+    public static final String PACK_SUFFIX = ".pack";
+
+    public static final String PACK_INDEX_SUFFIX = ".idx";
+
+    public static final String PACK_BITMAP_SUFFIX = ".bitmap";
+
+    public static final String PACK_REVERSE_INDEX_SUFFIX = ".rev";
+
     // Git commands
     public static final String GIT_CAPABILITIES = "capabilities";
 
@@ -54,15 +102,228 @@ public final class AppConfig {
 
     public static final String GIT_ERROR = "error ";
 
+    public static final String GIT_NON_FAST_FORWARD = "non-fast-forward";
+
     public static final String GIT_FORCE = "+";
 
     public static final String GIT_OBJECTS = "objects";
 
+    public static final String GIT_DIR = ".git";
+
     public static final String GIT_REF = "ref: ";
 
+    public static final String GIT_REF_PREFIX = "ref-prefix";
+
+    public static final String GIT_PEELED_SUFFIX = "^{}";
+
+    // Git config keys
+    public static final String CONFIG_ZKGIT_SECTION = "zkgit";
+
+    public static final String CONFIG_KEY_REF_STORAGE = "refStorage";
+
+    // JGit's name for the loose refs and packed-refs format git calls files
+    public static final String REF_STORAGE_REFDIR = "refdir";
+
+    public static final String CONFIG_KEY_COMPRESS = "compress";
+
+    public static final String CONFIG_KEY_HANDOFF = "handoff";
+
+    public static final String HANDOFF_BUNDLE = "bundle";
+
+    public static final String HANDOFF_STREAM = "stream";
+
+    public static final String CONFIG_KEY_MMAP = "mmap";
+
+    public static final String CONFIG_KEY_UPTODATE_TTL = "upToDateTtl";
+
+    public static final String CONFIG_KEY_PREFETCH_INTERVAL = "prefetchInterval";
+
+    public static final String CONFIG_KEY_SOCKET = "socket";
+
+    public static final String CONFIG_KEY_CACHE_ROOT = "cacheRoot";
+
+    public static final String CONFIG_KEY_CACHE_MAX_SIZE = "cacheMaxSize";
+
+    public static final String CONFIG_KEY_CACHE_WARM_ACCESSES = "cacheWarmAccesses";
+
+    public static final String CONFIG_KEY_CACHE_WARM_WINDOW_HOURS = "cacheWarmWindowHours";
+
+    public static final String CONFIG_KEY_THREADS = "threads";
+
+    public static final String CONFIG_KEY_CPU_THREADS = "cpuThreads";
+
+    public static final String CONFIG_KEY_BUFFER_SIZE = "bufferSize";
+
+    public static final String CONFIG_KEY_SOCKET_THREADS = "socketThreads";
+
+    public static final String CONFIG_KEY_PACKED_GIT_LIMIT = "packedGitLimit";
+
+    public static final String CONFIG_KEY_PACKED_GIT_WINDOW_SIZE = "packedGitWindowSize";
+
+    public static final String CONFIG_KEY_PACKED_GIT_OPEN_FILES = "packedGitOpenFiles";
+
+    public static final String CONFIG_KEY_DELTA_BASE_CACHE_LIMIT = "deltaBaseCacheLimit";
+
+    public static final String ENV_PREFIX = "ZKGIT_";
+
+    // Cache configuration
+    public static final String CACHE_ACCESS_FILE = "zkgit-access";
+
+    public static final String CACHE_IN_USE_FILE = "zkgit-inuse";
+
+    public static final String CACHE_SIZE_FILE = "zkgit-size";
+
+    public static final String CACHE_EVICTED_PREFIX = "zkgit-evicted-";
+
+    public static final int CACHE_ACCESS_HISTORY = 16;
+
+    public static final long CACHE_DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+    public static final int CACHE_DEFAULT_WARM_ACCESSES = 3;
+
+    public static final long ONE_HOUR_MILLIS = 60L * 60 * 1000;
+
+    public static final long CACHE_DEFAULT_WARM_WINDOW_MILLIS = 24 * ONE_HOUR_MILLIS;
+
+    // Chunking configuration
+    public static final String CHUNK_INDEX_FILE = "zkgit-chunks.idx";
+
+    public static final String CHUNK_MANIFEST_FILE = "zkgit-manifest";
+
+    public static final String CHUNK_CACHE_FILE = "zkgit-chunks.cache";
+
+    public static final String CHUNK_NEW = "new";
+
+    public static final String CHUNK_KNOWN = "known";
+
+    public static final String CHUNK_DIGEST = "SHA-256";
+
+    public static final long CHUNK_GEAR_SEED = 0x7a6b676974L;
+
+    public static final int CHUNK_MIN_SIZE = 16 * 1024;
+
+    public static final int CHUNK_AVG_SIZE = 64 * 1024;
+
+    public static final int CHUNK_MAX_SIZE = 256 * 1024;
+
+    public static final int CHUNK_READ_BUFFER = 64 * 1024;
+
+    // Compression configuration
+    public static final int COMPRESS_BLOCK_SIZE = 1024 * 1024;
+
+    public static final int GZIP_HEADER_SIZE = 20;
+
+    public static final int GZIP_TRAILER_SIZE = 8;
+
+    public static final byte GZIP_EXTRA_ID1 = 'Z';
+
+    public static final byte GZIP_EXTRA_ID2 = 'K';
+
+    // Streaming configuration
+    public static final int STREAM_BLOCK_SIZE = 64 * 1024;
+
+    public static final int STREAM_QUEUE_CAPACITY = 16;
+
+    public static final long STREAM_POLL_MILLIS = 100;
+
+    public static final int STREAM_FILE_THRESHOLD = 16 * 1024 * 1024;
+
+    // Transfer journal configuration
+    public static final String JOURNAL_PUSH_KEY = "push:";
+
+    public static final String JOURNAL_COPY_KEY = "copy:";
+
+    public static final String JOURNAL_STAGE_STAGED = "staged";
+
+    public static final String JOURNAL_STAGE_PACKAGED = "packaged";
+
+    public static final String JOURNAL_STAGE_COPIED = "copied";
+
+    public static final long JOURNAL_RESUME_WINDOW_MILLIS = ONE_HOUR_MILLIS;
+
+    public static final long JOURNAL_CHECKPOINT_BYTES = 8L * 1024 * 1024;
+
+    // Up-to-date cache configuration
+    public static final long UPTODATE_TTL_SECONDS = 10;
+
+    public static final String UPTODATE_SCOPE_FETCH = "fetch";
+
+    public static final String UPTODATE_SCOPE_PUSH = "push";
+
+    public static final String UPTODATE_SCOPE_PREFETCH = "prefetch";
+
+    // Prefetch configuration
+    public static final String ARG_PREFETCH = "--prefetch";
+
+    public static final String ZKGIT_URL_PREFIX = "zkgit::";
+
+    public static final String PREFETCH_STAMP_FILE = "zkgit-prefetch";
+
+    public static final String PREFETCH_NAMESPACE = "refs/prefetch/";
+
+    public static final String PREFETCH_REF_PREFIX = PREFETCH_NAMESPACE + "remotes/";
+
+    public static final String PREFETCH_REFLOG_MESSAGE = "zkgit prefetch";
+
+    public static final long PREFETCH_INTERVAL_SECONDS = 60L * 60;
+
+    public static final long PREFETCH_POLL_MILLIS = 60L * 1000;
+
+    // Multi-repository sync configuration
+    public static final String ARG_SYNC = "--sync";
+
+    public static final String SYNC_REFLOG_MESSAGE = "zkgit sync";
+
+    // Object index configuration
+    public static final int OBJECT_INDEX_HASHES = 7;
+
+    public static final int OBJECT_INDEX_BITS_PER_ENTRY = 10;
+
+    public static final long OBJECT_INDEX_MIN_CAPACITY = 64 * 1024;
+
+    public static final long OBJECT_INDEX_RACY_NANOS = 2_000_000_000L;
+
+    // Merkle tree configuration
+    public static final int MERKLE_BUCKETS = 256;
+
+    public static final int MERKLE_SEGMENT_LENGTH = 1024;
+
+    public static final String MERKLE_LEVEL = "level";
+
+    public static final String MERKLE_BUCKET = "bucket";
+
+    public static final String MERKLE_SEGMENTS = "segments";
+
+    public static final String MERKLE_SEGMENT_SEPARATOR = "@";
+
+    // Maintenance configuration
+    public static final int MAINTENANCE_LOOSE_OBJECT_LIMIT = 1000;
+
+    public static final int MAINTENANCE_PACK_FILE_LIMIT = 10;
+
+    public static final String MAINTENANCE_SAMPLE_DIR = "17";
+
+    public static final int MAINTENANCE_FAN_OUT = 256;
+
+    public static final String MAINTENANCE_COMMIT_GRAPH_FILE = "info/commit-graph";
+
+    public static final String MAINTENANCE_LOCK_FILE = "zkgit-maintenance.lock";
+
+    public static final String ARG_MAINTENANCE = "--maintenance";
+
+    public static final String MAIN_CLASS = "se.miun.dt133g.zkgithelper.ZkGitHelper";
+
+    public static final String JAR_EXTENSION = ".jar";
+
     // Connection configuration
     public static final String CONN_LOCALHOST = "localhost";
 
+    public static final String UNIX_URL_PREFIX = "unix:";
+
+    public static final String ASYNC_THREAD_NAME = "zkgit-connection";
+
+    public static final String CPU_THREAD_NAME = "zkgit-cpu-";
+
     // Error messages
     public static final String ERROR_CLIENT_NOT_RUNNING = "ZK Git - client port not open -"
         + " client not running or wrong port configured";
@@ -85,6 +346,12 @@ public final class AppConfig {
 
     public static final String ERROR_HASH_MISMATCH = "Hash mismatch ";
 
+    public static final String ERROR_OBJECT_TOO_LARGE = "Object too large to load into memory, stream it instead: ";
+
+    public static final String ERROR_COPY_OBJECT = "Failed to copy object: ";
+
+    public static final String ERROR_VERIFICATION_FAILED = "ZK Git - received objects failed verification: ";
+
     public static final String ERROR_OPERATION_INTERRUPTED = "operation interrupted";
 
     public static final String ERROR_COMPRESSING_FAILED = "Could not compress repository: ";
@@ -109,11 +376,49 @@ public final class AppConfig {
 
     public static final String ERROR_CANNOT_WRITE_REF = "Cannot write ref";
 
+    public static final String ERROR_RELEASE_LOCK = "ZK Git - failed to release repository lock: ";
+
+    public static final String ERROR_CACHE_ACCESS = "ZK Git - could not record cache access: ";
+
+    public static final String ERROR_CACHE_SCAN = "ZK Git - could not scan cache directories: ";
+
+    public static final String ERROR_CACHE_EVICT = "ZK Git - could not evict cache: ";
+
+    public static final String ERROR_CHUNK_MANIFEST = "ZK Git - could not build chunk manifest: ";
+
+    public static final String ERROR_ASYNC_CONNECTION = "ZK Git - asynchronous connection failed: ";
+
+    public static final String ERROR_SYNC_FAILED = "ZK Git - sync failed: ";
+
+    public static final String ERROR_PREFETCH_FAILED = "ZK Git - prefetch failed: ";
+
+    public static final String ERROR_BUNDLE_FAILED = "ZK Git - bundle handoff failed: ";
+
+    public static final String ERROR_BUNDLE_HEADER = "truncated bundle header";
+
+    public static final String ERROR_STREAM_CANCELLED = "ZK Git - stream cancelled by receiver";
+
+    public static final String ERROR_STAGING_FAILED = "ZK Git - push into temporary repository failed: ";
+
+    public static final String ERROR_STAGING_REJECTED = "ZK Git - push into temporary repository rejected: ";
+
+    public static final String ERROR_UPTODATE_CACHE = "ZK Git - up-to-date cache not updated: ";
+
+    public static final String ERROR_JOURNAL = "ZK Git - transfer journal not updated: ";
+
+    public static final String ERROR_OBJECT_INDEX = "ZK Git - object index not updated: ";
+
+    public static final String ERROR_SETTINGS = "ZK Git - settings not applied: ";
+
+    public static final String ERROR_MAINTENANCE_FAILED = "ZK Git - repository maintenance failed: ";
+
     // Status messages
     public static final String STATUS_CLIENT_RUNNING = "ZK Client - Client and Server running and connected";
 
     public static final String STATUS_SEND_BEGIN = "ZK Git - encrypting and transferring to remote";
 
+    public static final String STATUS_STREAM_BEGIN = "ZK Git - streaming, encrypting and transferring to remote";
+
     public static final String STATUS_SEND_FINISH = "ZK Git - encryption and transfer completed";
 
     public static final String STATUS_REQUEST_BEGIN = "ZK Git - retrieving from remote and decrypting";
@@ -122,6 +427,8 @@ public final class AppConfig {
 
     public static final String STATUS_REQUEST_UPTODATE = "ZK Git - already up to date";
 
+    public static final String STATUS_UPTODATE_CACHED = "ZK Git - confirmed up to date within TTL: ";
+
     public static final String STATUS_ZKGIT_START = "ZK Git - start";
 
     public static final String STATUS_ZKGIT_FINISH = "ZK Git - completed";
@@ -166,6 +473,42 @@ public final class AppConfig {
 
     public static final String STATUS_BEGIN_PULL = "ZK Git - preparing pull";
 
+    public static final String STATUS_CONVERTING_REFS = "ZK Git - converting temporary ref storage to ";
+
+    public static final String STATUS_CACHE_EVICTED = "ZK Git - evicted cache ";
+
+    public static final String STATUS_APPLYING_BUNDLE = "ZK Git - applying bundle ";
+
+    public static final String STATUS_RESUMING = "ZK Git - resuming completed stage ";
+
+    public static final String STATUS_UNSTAGED = "ZK Git - reset staged ref after failed transfer ";
+
+    public static final String STATUS_SYNC_START = "ZK Git - syncing remotes: ";
+
+    public static final String STATUS_SYNC_STAGED = "ZK Git - synced ";
+
+    public static final String STATUS_SYNC_UNINITIALIZED = "ZK Git - skipping uninitialized submodule ";
+
+    public static final String STATUS_SYNC_FINISH = "ZK Git - sync finished: ";
+
+    public static final String STATUS_PREFETCH_START = "ZK Git - prefetching ";
+
+    public static final String STATUS_PREFETCH_SKIPPED = "ZK Git - prefetch skipped: ";
+
+    public static final String STATUS_PREFETCH_STAGED = "ZK Git - prefetched ";
+
+    public static final String STATUS_UNIX_SOCKET_FALLBACK = "ZK Git - Unix socket unavailable, using TCP: ";
+
+    public static final String STATUS_MERKLE_UNSUPPORTED = "ZK Git - client cannot compare ref trees, requesting everything: ";
+
+    public static final String STATUS_MERKLE_CHANGED = "ZK Git - changed refs: ";
+
+    public static final String STATUS_MAINTENANCE_START = "ZK Git - repacking temporary repository";
+
+    public static final String STATUS_MAINTENANCE_FINISH = "ZK Git - repacking completed";
+
+    public static final String STATUS_MAINTENANCE_BUSY = "ZK Git - temporary repository in use, repacking later";
+
     // Other
     public static final String SPACE_SEPARATOR = " ";
 
@@ -181,7 +524,13 @@ public final class AppConfig {
 
     public static final int MAX_NUM_PROCESSES = 5;
 
+    public static final int SOCKET_DEFAULT_THREADS = 8;
+
+    public static final int LOCK_STRIPES = 64;
+
     public static final String ERASE = "\033[F\033[K";
 
     public static final int ONE_KB = 1024;
+
+    public static final int OUTPUT_BUFFER_SIZE = 64 * ONE_KB;
 }
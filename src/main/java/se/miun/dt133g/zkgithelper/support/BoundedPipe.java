@@ -0,0 +1,182 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory pipe between one producer and one consumer thread, holding at most a
+ * fixed number of blocks. A producer writing faster than the consumer reads blocks
+ * until space frees up, so memory use stays bounded. The producer ends the stream by
+ * closing the sink, or by calling {@link #fail} so the consumer sees the error instead
+ * of a clean end; a consumer closing the source cancels the producer.
+ * @author Leif Rogell
+ */
+public final class BoundedPipe {
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> queue;
+    private final int blockSize;
+    private volatile IOException failure;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a pipe.
+     * @param blockSize the size of the blocks handed from producer to consumer
+     * @param capacity the number of blocks the pipe holds before the producer blocks
+     */
+    public BoundedPipe(final int blockSize, final int capacity) {
+        this.blockSize = blockSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Returns the producer side of the pipe. Closing it marks the end of the data.
+     * @return the output stream to write to
+     */
+    public OutputStream sink() {
+        return new Sink();
+    }
+
+    /**
+     * Returns the consumer side of the pipe. Closing it cancels the producer.
+     * @return the input stream to read from
+     */
+    public InputStream source() {
+        return new Source();
+    }
+
+    /**
+     * Ends the stream with an error, which the consumer receives once it has read
+     * the data written before the failure.
+     * @param cause the reason the producer failed
+     */
+    public void fail(final Exception cause) {
+        failure = cause instanceof IOException
+            ? (IOException) cause
+            : new IOException(cause.getMessage(), cause);
+        try {
+            put(END);
+        } catch (IOException e) {
+            // The consumer has already gone away; nothing is waiting for the end marker.
+        }
+    }
+
+    /**
+     * Hands a block to the consumer, waiting while the pipe is full.
+     * @param block the block to hand over
+     * @throws IOException if the consumer cancelled or the thread was interrupted
+     */
+    private void put(final byte[] block) throws IOException {
+        try {
+            while (!queue.offer(block, AppConfig.STREAM_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    throw new IOException(AppConfig.ERROR_STREAM_CANCELLED);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+        }
+    }
+
+    /**
+     * Producer side, collecting writes into blocks.
+     */
+    private final class Sink extends OutputStream {
+        private byte[] block = new byte[blockSize];
+        private int length;
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] data, final int offset, final int count) throws IOException {
+            int off = offset;
+            int remaining = count;
+            while (remaining > 0) {
+                int n = Math.min(remaining, block.length - length);
+                System.arraycopy(data, off, block, length, n);
+                length += n;
+                off += n;
+                remaining -= n;
+                if (length == block.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (length > 0) {
+                put(length == block.length ? block : Arrays.copyOf(block, length));
+                block = new byte[blockSize];
+                length = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            put(END);
+        }
+    }
+
+    /**
+     * Consumer side, reading blocks in the order they were written.
+     */
+    private final class Source extends InputStream {
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            while (position == current.length) {
+                if (ended) {
+                    return -1;
+                }
+                try {
+                    current = queue.take();
+                    position = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+                }
+                if (current == END) {
+                    ended = true;
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            }
+            int n = Math.min(count, current.length - position);
+            System.arraycopy(current, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            cancelled = true;
+            queue.clear();
+        }
+    }
+}
@@ -1,22 +1,49 @@
 package se.miun.dt133g.zkgithelper.support;
 
 import java.util.Scanner;
+import java.io.BufferedWriter;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Utility class for input/output operations in the ZkGitHelper application.
  * Handles standard input and output, filters unwanted log output (e.g., SLF4J warnings),
- * and provides simple logging and fatal error handling.
+ * and provides simple logging and fatal error handling. The shared {@code INSTANCE}
+ * speaks git's protocol on standard input and output and exits on fatal errors; a
+ * session embedded in another program gets its own instance on its own streams, which
+ * throws {@link SessionAbortedException} instead.
  * @author Leif Rogell
  */
 public final class IoUtils {
 
     public static final IoUtils INSTANCE = new IoUtils();
-    private static Scanner scanner = new Scanner(System.in);
 
-    private IoUtils() { }
+    private final Scanner scanner;
+    private final PrintStream out;
+    private final boolean exitOnFatal;
+
+    private IoUtils() {
+        this.scanner = new Scanner(System.in);
+        this.out = System.out;
+        this.exitOnFatal = true;
+    }
+
+    /**
+     * Creates I/O for a session that reads git's commands from one stream and writes its
+     * answers to another. Traces still go to standard error.
+     * @param in the stream of commands
+     * @param out the stream for answers
+     */
+    public IoUtils(final InputStream in, final OutputStream out) {
+        this.scanner = new Scanner(in, StandardCharsets.UTF_8);
+        this.out = new PrintStream(out, true, StandardCharsets.UTF_8);
+        this.exitOnFatal = false;
+    }
 
     /**
      * Custom output stream that filters out lines containing unwanted log prefixes (e.g., SLF4J).
@@ -45,19 +72,29 @@ public final class IoUtils {
     }
 
     /**
-     * Returns a shared {@link Scanner} instance for reading standard input.
-     * @return the scanner connected to System.in
+     * Returns the {@link Scanner} reading this instance's commands.
+     * @return the scanner connected to System.in, or to the session's input
      */
     public Scanner getScanner() {
         return scanner;
     }
 
     /**
-     * Prints a line of output to standard out.
+     * Prints a line of output to standard out, or to the session's output.
      * @param line the line to print
      */
     public void write(final String line) {
-        System.out.println(line);
+        out.println(line);
+    }
+
+    /**
+     * Returns a buffered writer on standard out, or on the session's output, for emitting
+     * many lines at once. Callers must flush the writer when done; it must not be closed.
+     * @return a buffered writer wrapping the output
+     */
+    public PrintWriter bufferedWriter() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                                                  Settings.INSTANCE.getBufferSize()));
     }
 
     /**
@@ -69,13 +106,17 @@ public final class IoUtils {
     }
 
     /**
-     * Logs a fatal error message and exits the program.
-     * @param message the error message to log
+     * Logs a fatal error message and exits the program, or ends the session.
+     * @param message the error message to log, or null to end without one
+     * @throws SessionAbortedException if this instance belongs to an embedded session
      */
     public void fatal(final String message) {
         if (message != null) {
             trace(AppConfig.ERROR + message);
         }
+        if (!exitOnFatal) {
+            throw new SessionAbortedException(message);
+        }
         System.exit(1);
     }
 
@@ -0,0 +1,19 @@
+package se.miun.dt133g.zkgithelper.support;
+
+/**
+ * Thrown instead of exiting when a command of an embedded session fails or ends early,
+ * such as a fetch finding the repository already up to date.
+ * @author Leif Rogell
+ */
+public final class SessionAbortedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     * @param message the error message, or null if the session ended without an error
+     */
+    public SessionAbortedException(final String message) {
+        super(message);
+    }
+}
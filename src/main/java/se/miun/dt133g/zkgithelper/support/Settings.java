@@ -0,0 +1,180 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Singleton holding the process-wide performance settings, read at startup from the
+ * {@code zkgit} section of the working repository's configuration, which falls back to
+ * the user's global and the system git configuration, and from {@code ZKGIT_*}
+ * environment variables, which take precedence. {@code ZKGIT_SOCKETTHREADS=4} overrides
+ * {@code zkgit.socketThreads}, since git configuration keys ignore case.
+ * Settings cover thread counts ({@code threads}, {@code cpuThreads},
+ * {@code socketThreads}), the I/O buffer
+ * size ({@code bufferSize}) and JGit's pack window cache ({@code packedGitLimit},
+ * {@code packedGitWindowSize}, {@code packedGitOpenFiles}, {@code deltaBaseCacheLimit},
+ * {@code mmap}); per-repository options and feature toggles are read from
+ * {@link #layer(Config)}.
+ * @author Leif Rogell
+ */
+public final class Settings {
+
+    public static final Settings INSTANCE = new Settings();
+
+    private volatile int threads = AppConfig.MAX_NUM_PROCESSES;
+    private volatile int cpuThreads = Runtime.getRuntime().availableProcessors();
+    private volatile int socketThreads = AppConfig.SOCKET_DEFAULT_THREADS;
+    private volatile int bufferSize = AppConfig.OUTPUT_BUFFER_SIZE;
+    private boolean configured;
+
+    private Settings() { }
+
+    /**
+     * Returns a configuration that reads the given one with the {@code ZKGIT_*}
+     * environment variables layered on top.
+     * @param config the configuration to read, usually the working repository's
+     * @return the layered configuration; changes to it are never saved
+     */
+    public static Config layer(final Config config) {
+        return layer(config, System.getenv());
+    }
+
+    /**
+     * Returns a configuration that reads the given one with the {@code ZKGIT_*}
+     * variables of an environment layered on top.
+     * @param config the configuration to read
+     * @param environment the environment variables
+     * @return the layered configuration
+     */
+    static Config layer(final Config config, final Map<String, String> environment) {
+        Config layered = new Config(config);
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            String name = variable.getKey();
+            if (name.startsWith(AppConfig.ENV_PREFIX) && name.length() > AppConfig.ENV_PREFIX.length()) {
+                layered.setString(AppConfig.CONFIG_ZKGIT_SECTION, null,
+                                  name.substring(AppConfig.ENV_PREFIX.length()).toLowerCase(Locale.ROOT),
+                                  variable.getValue());
+            }
+        }
+        return layered;
+    }
+
+    /**
+     * Applies the settings of a layered configuration to this process and installs
+     * JGit's window cache configuration, which JGit holds globally. Values that cannot
+     * be used are traced and the defaults kept. Only the first call applies, made when
+     * the process starts, so the window cache is installed once and sessions running
+     * side by side never change each other's limits.
+     * @param config the layered configuration, see {@link #layer(Config)}
+     */
+    public synchronized void configure(final Config config) {
+        if (configured) {
+            return;
+        }
+        configured = true;
+        try {
+            int configuredThreads = positive(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                           AppConfig.CONFIG_KEY_THREADS, threads),
+                                             AppConfig.CONFIG_KEY_THREADS);
+            int configuredCpuThreads = positive(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                              AppConfig.CONFIG_KEY_CPU_THREADS, cpuThreads),
+                                                AppConfig.CONFIG_KEY_CPU_THREADS);
+            int configuredSocketThreads = positive(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                                 AppConfig.CONFIG_KEY_SOCKET_THREADS, socketThreads),
+                                                   AppConfig.CONFIG_KEY_SOCKET_THREADS);
+            int configuredBufferSize = positive(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                              AppConfig.CONFIG_KEY_BUFFER_SIZE, bufferSize),
+                                                AppConfig.CONFIG_KEY_BUFFER_SIZE);
+            windowCacheConfig(config).install();
+            threads = configuredThreads;
+            cpuThreads = configuredCpuThreads;
+            socketThreads = configuredSocketThreads;
+            bufferSize = configuredBufferSize;
+        } catch (IllegalArgumentException e) {
+            IoUtils.INSTANCE.trace(AppConfig.ERROR_SETTINGS + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds JGit's window cache configuration from the {@code core} pack settings,
+     * overridden by their {@code zkgit} counterparts. Objects larger than
+     * {@code core.streamFileThreshold} (default {@link AppConfig#STREAM_FILE_THRESHOLD})
+     * are always streamed, and pack files are read through memory maps when
+     * {@code zkgit.mmap} is true.
+     * @param config the layered configuration
+     * @return the window cache configuration
+     */
+    private static WindowCacheConfig windowCacheConfig(final Config config) {
+        WindowCacheConfig cacheConfig = new WindowCacheConfig().fromConfig(config);
+        if (config.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+                             ConfigConstants.CONFIG_KEY_STREAM_FILE_THRESHOLD) == null) {
+            cacheConfig.setStreamFileThreshold(AppConfig.STREAM_FILE_THRESHOLD);
+        }
+        cacheConfig.setPackedGitLimit(config.getLong(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                     AppConfig.CONFIG_KEY_PACKED_GIT_LIMIT,
+                                                     cacheConfig.getPackedGitLimit()));
+        cacheConfig.setPackedGitWindowSize(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                         AppConfig.CONFIG_KEY_PACKED_GIT_WINDOW_SIZE,
+                                                         cacheConfig.getPackedGitWindowSize()));
+        cacheConfig.setPackedGitOpenFiles(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                        AppConfig.CONFIG_KEY_PACKED_GIT_OPEN_FILES,
+                                                        cacheConfig.getPackedGitOpenFiles()));
+        cacheConfig.setDeltaBaseCacheLimit(config.getInt(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                         AppConfig.CONFIG_KEY_DELTA_BASE_CACHE_LIMIT,
+                                                         cacheConfig.getDeltaBaseCacheLimit()));
+        cacheConfig.setPackedGitMMAP(config.getBoolean(AppConfig.CONFIG_ZKGIT_SECTION,
+                                                       AppConfig.CONFIG_KEY_MMAP,
+                                                       cacheConfig.isPackedGitMMAP()));
+        return cacheConfig;
+    }
+
+    /**
+     * Checks that a count or size is positive.
+     * @param value the configured value
+     * @param key the configuration key, for the error message
+     * @return the value
+     * @throws IllegalArgumentException if the value is not positive
+     */
+    private static int positive(final int value, final String key) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(AppConfig.CONFIG_ZKGIT_SECTION + "." + key + "=" + value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of workers for I/O-bound work such as copying objects.
+     * @return {@code zkgit.threads}, default {@link AppConfig#MAX_NUM_PROCESSES}
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of workers for CPU-bound work such as compression and hashing.
+     * @return {@code zkgit.cpuThreads}, default the number of available cores
+     */
+    public int getCpuThreads() {
+        return cpuThreads;
+    }
+
+    /**
+     * Returns the number of tasks exchanging data with the ZK client at once.
+     * @return {@code zkgit.socketThreads}, default {@link AppConfig#SOCKET_DEFAULT_THREADS}
+     */
+    public int getSocketThreads() {
+        return socketThreads;
+    }
+
+    /**
+     * Returns the size of stream and socket buffers.
+     * @return {@code zkgit.bufferSize} in bytes, default {@link AppConfig#OUTPUT_BUFFER_SIZE}
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,278 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Singleton execution layer shared by every subsystem of the process. CPU-bound work
+ * such as compression and hashing runs on a pool of {@code zkgit.cpuThreads} platform
+ * threads; I/O-bound work runs on virtual threads, at most {@code zkgit.threads} at a
+ * time on the disk and {@code zkgit.socketThreads} at a time against the ZK client.
+ * Limits are read from {@link Settings} whenever work is submitted, so they follow the
+ * configuration, and the default CPU limit follows the cores the container grants.
+ * Work belonging together is submitted through a {@link Group}, which waits for all of
+ * it and cancels what is left as soon as one task fails.
+ * @author Leif Rogell
+ */
+public final class SharedExecutor {
+
+    public static final SharedExecutor INSTANCE = new SharedExecutor();
+
+    /**
+     * The resource a task mostly waits for.
+     */
+    public enum Resource {
+        /** Compression, hashing and other computation. */
+        CPU,
+        /** Reading and writing repository files. */
+        DISK,
+        /** Exchanges with the ZK client. */
+        SOCKET
+    }
+
+    private final AtomicInteger cpuThreadCount = new AtomicInteger();
+    private final ThreadPoolExecutor cpu;
+    private final ExecutorService virtual = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Resource, Limit> limits = new EnumMap<>(Resource.class);
+
+    /**
+     * Counting limit whose capacity is read on every acquisition. Waiting uses a
+     * {@link ReentrantLock}, which does not pin the carrier of a virtual thread.
+     */
+    private static final class Limit {
+        private final IntSupplier capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private int inUse;
+
+        Limit(final IntSupplier capacity) {
+            this.capacity = capacity;
+        }
+
+        void acquire() throws InterruptedException {
+            lock.lock();
+            try {
+                while (inUse >= capacity.getAsInt()) {
+                    released.await();
+                }
+                inUse++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inUse--;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private SharedExecutor() {
+        int threads = Settings.INSTANCE.getCpuThreads();
+        cpu = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                     runnable -> {
+                                         Thread thread = new Thread(runnable, AppConfig.CPU_THREAD_NAME
+                                                                    + cpuThreadCount.incrementAndGet());
+                                         thread.setDaemon(true);
+                                         return thread;
+                                     });
+        limits.put(Resource.DISK, new Limit(Settings.INSTANCE::getThreads));
+        limits.put(Resource.SOCKET, new Limit(Settings.INSTANCE::getSocketThreads));
+    }
+
+    /**
+     * Runs a task on the threads for its resource.
+     * @param resource the resource the task mostly waits for
+     * @param task the task
+     * @param <T> the type of the task's result
+     * @return the task's result; cancelling it interrupts the task
+     */
+    public <T> Future<T> submit(final Resource resource, final Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(resource, future);
+        return future;
+    }
+
+    /**
+     * Runs a task on the threads for its resource once the resource's limit allows.
+     * A task cancelled while it waits for the limit never runs.
+     * @param resource the resource the task mostly waits for
+     * @param task the task
+     */
+    private void execute(final Resource resource, final RunnableFuture<?> task) {
+        if (resource == Resource.CPU) {
+            cpuExecutor().execute(task);
+            return;
+        }
+        Limit limit = limits.get(resource);
+        virtual.execute(() -> {
+                try {
+                    limit.acquire();
+                } catch (InterruptedException e) {
+                    task.cancel(false);
+                    return;
+                }
+                try {
+                    if (!task.isDone()) {
+                        task.run();
+                    }
+                } finally {
+                    limit.release();
+                }
+            });
+    }
+
+    /**
+     * Returns the CPU pool, resized to the current {@code zkgit.cpuThreads}, for streams
+     * that keep their own window of tasks in flight. It must not be shut down.
+     * @return the CPU pool
+     */
+    public synchronized ExecutorService cpuExecutor() {
+        int threads = Settings.INSTANCE.getCpuThreads();
+        if (threads > cpu.getMaximumPoolSize()) {
+            cpu.setMaximumPoolSize(threads);
+            cpu.setCorePoolSize(threads);
+        } else if (threads < cpu.getMaximumPoolSize()) {
+            cpu.setCorePoolSize(threads);
+            cpu.setMaximumPoolSize(threads);
+        }
+        return cpu;
+    }
+
+    /**
+     * Returns the number of tasks of a resource that run at once.
+     * @param resource the resource
+     * @return the current limit
+     */
+    public int limit(final Resource resource) {
+        switch (resource) {
+        case CPU:
+            return Settings.INSTANCE.getCpuThreads();
+        case DISK:
+            return Settings.INSTANCE.getThreads();
+        default:
+            return Settings.INSTANCE.getSocketThreads();
+        }
+    }
+
+    /**
+     * Starts a group of tasks that are awaited or cancelled together.
+     * @return the group; closing it cancels its unfinished tasks
+     */
+    public Group newGroup() {
+        return new Group();
+    }
+
+    /**
+     * Tasks submitted together, such as the objects of one push. The first task to fail
+     * cancels the others as soon as it fails, and tasks are awaited in the order they
+     * finish, so a failure is seen without waiting for the tasks submitted before it.
+     */
+    public final class Group implements AutoCloseable {
+        private final List<Future<?>> tasks = new ArrayList<>();
+        private final BlockingQueue<Future<?>> completed = new LinkedBlockingQueue<>();
+
+        private Group() { }
+
+        /**
+         * Runs a task as part of this group.
+         * @param resource the resource the task mostly waits for
+         * @param task the task
+         * @param <T> the type of the task's result
+         * @return the task's result
+         */
+        public synchronized <T> Future<T> submit(final Resource resource, final Callable<T> task) {
+            FutureTask<T> future = new FutureTask<>(task) {
+                @Override
+                protected void setException(final Throwable failure) {
+                    super.setException(failure);
+                    Group.this.cancel();
+                }
+
+                @Override
+                protected void done() {
+                    completed.add(this);
+                }
+            };
+            tasks.add(future);
+            execute(resource, future);
+            return future;
+        }
+
+        /**
+         * Waits for every task of the group, including tasks submitted meanwhile, in the
+         * order they finish. The first failure has cancelled the remaining tasks and is
+         * rethrown; unchecked exceptions keep their type.
+         * @throws IOException if a task failed or waiting was interrupted
+         */
+        public void await() throws IOException {
+            try {
+                for (int finished = 0; finished < size(); finished++) {
+                    Future<?> task = completed.take();
+                    if (!task.isCancelled()) {
+                        task.get();
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(AppConfig.ERROR_OPERATION_INTERRUPTED);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+
+        /**
+         * Returns the number of tasks submitted to the group so far.
+         * @return the number of tasks
+         */
+        private synchronized int size() {
+            return tasks.size();
+        }
+
+        /**
+         * Cancels the unfinished tasks of the group, interrupting those running.
+         */
+        public synchronized void cancel() {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks selected by key hash, so operations on different keys
+ * (ref names, object fan-out directories) run in parallel while operations
+ * on the same key are serialised, without one lock per key.
+ * @author Leif Rogell
+ */
+public final class StripedLock {
+
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Creates a striped lock with the given number of stripes.
+     * @param count the number of stripes, rounded up to a power of two
+     */
+    public StripedLock(final int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding the given key.
+     * @param key the key, e.g. a ref name or fan-out directory name
+     * @return the stripe lock for that key
+     */
+    public ReentrantLock lockFor(final String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
+    }
+}
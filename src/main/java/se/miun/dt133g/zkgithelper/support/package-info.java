@@ -3,6 +3,10 @@
  *
  * This package contains application-wide configuration constants and I/O utilities.
  * These classes are used for logging, user interaction, file system operations,
- * and defining standardized Git-related messages, errors, and statuses.
+ * and defining standardized Git-related messages, errors, and statuses. Embedded sessions
+ * get their own {@link se.miun.dt133g.zkgithelper.support.IoUtils} and end with a
+ * {@link se.miun.dt133g.zkgithelper.support.SessionAbortedException} where the helper
+ * process would exit. {@link se.miun.dt133g.zkgithelper.support.Settings} reads the
+ * performance settings from git configuration and the environment.
  */
 package se.miun.dt133g.zkgithelper.support;
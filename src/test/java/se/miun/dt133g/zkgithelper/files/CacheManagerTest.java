@@ -0,0 +1,146 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for {@link CacheManager}.
+ * @author Leif Rogell
+ */
+public class CacheManagerTest {
+
+    private static final long SIZE = 100;
+
+    @TempDir
+    Path root;
+
+    /**
+     * Creates a cache directory with a recorded size and access times.
+     */
+    private Path cache(final String name, final long... accesses) throws Exception {
+        Path dir = Files.createDirectory(root.resolve(AppConfig.TMP_PREFIX + name));
+        Files.write(dir.resolve(AppConfig.CACHE_SIZE_FILE), Long.toString(SIZE).getBytes(StandardCharsets.UTF_8));
+        StringBuilder times = new StringBuilder();
+        for (long access : accesses) {
+            times.append(access).append(AppConfig.NEW_LINE);
+        }
+        Files.write(dir.resolve(AppConfig.CACHE_ACCESS_FILE), times.toString().getBytes(StandardCharsets.UTF_8));
+        return dir;
+    }
+
+    private List<String> remaining() throws Exception {
+        try (Stream<Path> dirs = Files.list(root)) {
+            return dirs.map(dir -> dir.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Cold caches are evicted least recently used first, and a warm cache only once no
+     * cold one is left, even when it was last used before all of them. Evicted caches
+     * leave nothing behind, not even the directory they were renamed to.
+     */
+    @Test
+    public void evictsColdCachesBeforeWarmOnes() throws Exception {
+        cache("warm", 1000, 1001, 1002);
+        cache("old", 5000);
+        cache("new", 6000);
+        String prefix = AppConfig.TMP_PREFIX;
+
+        new CacheManager(root, 2 * SIZE, 3, Long.MAX_VALUE / 2).evict();
+        assertEquals(List.of(prefix + "new", prefix + "warm"), remaining());
+
+        new CacheManager(root, SIZE, 3, Long.MAX_VALUE / 2).evict();
+        assertEquals(List.of(prefix + "warm"), remaining());
+
+        CacheManager manager = new CacheManager(root, 1, 3, Long.MAX_VALUE / 2);
+        assertTrue(manager.isOverBudget());
+        manager.evict();
+        assertEquals(List.of(), remaining());
+        assertFalse(manager.isOverBudget());
+    }
+
+    /**
+     * A cache pinned in this process is never evicted, while unpinned ones are; once
+     * its last pin is released it can be evicted like any other.
+     */
+    @Test
+    public void neverEvictsPinnedCaches() throws Exception {
+        Path pinned = cache("pinned", 1000);
+        cache("other", 2000);
+        CacheManager manager = new CacheManager(root, 1, 3, 0);
+
+        CacheManager.Pin first = manager.pin(pinned);
+        CacheManager.Pin second = manager.pin(pinned);
+        manager.evict();
+        assertEquals(List.of(AppConfig.TMP_PREFIX + "pinned"), remaining());
+
+        first.close();
+        first.close();
+        manager.evict();
+        assertTrue(Files.isDirectory(pinned));
+
+        second.close();
+        manager.evict();
+        assertEquals(List.of(), remaining());
+    }
+
+    /**
+     * A cache pinned by another helper process, through a shared lock on its in-use
+     * file, is not evicted until that process lets go.
+     */
+    @Test
+    public void respectsPinsOfOtherProcesses() throws Exception {
+        Path pinned = cache("shared", 1000);
+        Path holder = root.resolve("Hold.java");
+        Files.write(holder, String.join(AppConfig.NEW_LINE,
+            "import java.nio.channels.FileChannel;",
+            "import java.nio.file.Paths;",
+            "import java.nio.file.StandardOpenOption;",
+            "public class Hold {",
+            "    public static void main(String[] args) throws Exception {",
+            "        try (FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.CREATE,",
+            "                 StandardOpenOption.READ, StandardOpenOption.WRITE);",
+            "             java.nio.channels.FileLock lock = channel.lock(0, Long.MAX_VALUE, true)) {",
+            "            System.out.println(\"locked\");",
+            "            System.in.read();",
+            "        }",
+            "    }",
+            "}").getBytes(StandardCharsets.UTF_8));
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                                             holder.toString(),
+                                             pinned.resolve(AppConfig.CACHE_IN_USE_FILE).toString())
+            .redirectErrorStream(true)
+            .start();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                                                             StandardCharsets.UTF_8));
+            assertEquals("locked", reader.readLine());
+            CacheManager manager = new CacheManager(root, 1, 3, 0);
+            manager.evict();
+            assertTrue(Files.isDirectory(pinned));
+
+            process.getOutputStream().close();
+            assertEquals(0, process.waitFor());
+            manager.evict();
+            assertFalse(Files.exists(pinned));
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+}
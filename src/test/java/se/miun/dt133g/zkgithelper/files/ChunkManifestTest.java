@@ -0,0 +1,80 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link ChunkManifest}.
+ * @author Leif Rogell
+ */
+public class ChunkManifestTest {
+
+    @TempDir
+    Path dir;
+
+    private static void write(final Path file, final long seed) throws IOException {
+        byte[] data = new byte[200 * 1024];
+        new Random(seed).nextBytes(data);
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+    }
+
+    /**
+     * File names are relative to the payload root, not the temporary directory, and
+     * delivered chunks are marked known.
+     */
+    @Test
+    public void namesFilesRelativeToRoot() throws IOException {
+        Path root = dir.resolve("work");
+        Path tmp = Files.createDirectories(dir.resolve("tmp"));
+        Path objects = root.resolve(".git").resolve("objects");
+        write(objects.resolve("pack").resolve("pack-1.pack"), 1);
+
+        ChunkIndex index = ChunkIndex.load(tmp);
+        ChunkManifest first = ChunkManifest.build(root, ChunkManifest.objectFiles(objects), tmp, index);
+        List<String> lines = Files.readAllLines(first.getFile(), StandardCharsets.UTF_8);
+        assertTrue(lines.get(0).startsWith(AppConfig.CHUNK_NEW + " "));
+        assertTrue(lines.get(0).contains(" .git/objects/pack/pack-1.pack "));
+
+        index.addAll(first.getNewChunks());
+        ChunkManifest second = ChunkManifest.build(root, ChunkManifest.objectFiles(objects), tmp, index);
+        assertTrue(second.getNewChunks().isEmpty());
+    }
+
+    /**
+     * A file changed since the last manifest is chunked again and a removed one
+     * is left out.
+     */
+    @Test
+    public void rechunksChangedFiles() throws IOException {
+        Path objects = dir.resolve("objects");
+        Path a = objects.resolve("a");
+        Path b = objects.resolve("b");
+        write(a, 1);
+        write(b, 2);
+        ChunkIndex index = ChunkIndex.load(dir);
+        index.addAll(ChunkManifest.build(dir, ChunkManifest.objectFiles(objects), dir, index).getNewChunks());
+
+        write(a, 3);
+        Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() + 1000));
+        Files.delete(b);
+        ChunkManifest manifest = ChunkManifest.build(dir, ChunkManifest.objectFiles(objects), dir, index);
+
+        List<String> lines = Files.readAllLines(manifest.getFile(), StandardCharsets.UTF_8);
+        assertTrue(lines.stream().allMatch(line -> line.contains(" objects/a ")));
+        assertEquals(lines.size(), manifest.getNewChunks().size());
+    }
+}
@@ -0,0 +1,76 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.eclipse.jgit.util.Hex;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link ContentChunker}.
+ * @author Leif Rogell
+ */
+public class ContentChunkerTest {
+
+    private static byte[] random(final int length, final long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static List<String> chunks(final byte[] data) throws IOException {
+        List<String> digests = new ArrayList<>();
+        long[] next = {0};
+        new ContentChunker().split(new ByteArrayInputStream(data), (offset, length, digest) -> {
+                assertEquals(next[0], offset);
+                next[0] += length;
+                digests.add(Hex.toHexString(digest));
+            });
+        assertEquals(data.length, next[0]);
+        return digests;
+    }
+
+    /**
+     * Chunks cover the input without gaps and stay within the size bounds; the same
+     * input always gives the same chunks.
+     */
+    @Test
+    public void splitsDeterministicallyWithinBounds() throws IOException {
+        byte[] data = random(4 * 1024 * 1024, 1);
+        List<Integer> lengths = new ArrayList<>();
+        new ContentChunker().split(new ByteArrayInputStream(data), (offset, length, digest) -> lengths.add(length));
+        for (int i = 0; i < lengths.size() - 1; i++) {
+            assertTrue(lengths.get(i) >= AppConfig.CHUNK_MIN_SIZE);
+            assertTrue(lengths.get(i) <= AppConfig.CHUNK_MAX_SIZE);
+        }
+        assertEquals(chunks(data), chunks(data));
+    }
+
+    /**
+     * Inserting bytes near the start changes only the chunks around the insertion;
+     * the boundaries after it realign and the later chunks are found again.
+     */
+    @Test
+    public void insertionKeepsLaterChunks() throws IOException {
+        byte[] data = random(4 * 1024 * 1024, 2);
+        byte[] edited = new byte[data.length + 100];
+        System.arraycopy(data, 0, edited, 0, 1000);
+        System.arraycopy(random(100, 3), 0, edited, 1000, 100);
+        System.arraycopy(data, 1000, edited, 1100, data.length - 1000);
+
+        List<String> before = chunks(data);
+        Set<String> after = new HashSet<>(chunks(edited));
+        long kept = before.stream().filter(after::contains).count();
+        assertTrue(kept >= before.size() - 2, kept + " of " + before.size() + " chunks kept");
+    }
+}
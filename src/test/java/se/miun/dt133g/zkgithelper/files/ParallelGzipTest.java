@@ -0,0 +1,151 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Round-trip tests for {@link ParallelGzipOutputStream} and {@link ParallelGzipInputStream}.
+ * @author Leif Rogell
+ */
+public class ParallelGzipTest {
+
+    private static final int THREADS = 4;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] text(final int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("tree ").append(text.length()).append(" blob commit parent\n");
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] random(final int length) {
+        byte[] data = new byte[length];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        in.transferTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Deflated and stored blocks, across several block sizes, decompress to the
+     * original bytes with both the parallel reader and the JDK's gzip reader.
+     */
+    @Test
+    public void roundTripsDeflatedAndStoredBlocks() throws IOException {
+        byte[] compressible = text(3 * AppConfig.COMPRESS_BLOCK_SIZE + 17);
+        byte[] incompressible = random(2 * AppConfig.COMPRESS_BLOCK_SIZE + 5);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, executor, THREADS)) {
+            out.write(compressible);
+            out.setCompressible(false);
+            out.write(incompressible);
+            out.setCompressible(true);
+            out.write('x');
+        }
+        expected.write(compressible);
+        expected.write(incompressible);
+        expected.write('x');
+
+        try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed.toByteArray()),
+                                                          executor, THREADS)) {
+            assertArrayEquals(expected.toByteArray(), readAll(in));
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            assertArrayEquals(expected.toByteArray(), readAll(in));
+        }
+    }
+
+    /**
+     * An empty stream round-trips to nothing.
+     */
+    @Test
+    public void roundTripsEmptyStream() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, executor, THREADS).close();
+        try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed.toByteArray()),
+                                                          executor, THREADS)) {
+            assertArrayEquals(new byte[0], readAll(in));
+        }
+    }
+
+    /**
+     * Compresses records, ending a block after each one as the payload packager does.
+     */
+    private byte[] compressRecords(final byte[]... records) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, executor, THREADS)) {
+            for (byte[] record : records) {
+                out.write(record);
+                out.endBlock();
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Splits a compressed stream into its members, using the size in each header.
+     */
+    private static List<String> members(final byte[] compressed) {
+        List<String> members = new ArrayList<>();
+        int offset = 0;
+        while (offset < compressed.length) {
+            int size = (compressed[offset + 16] & 0xff) | (compressed[offset + 17] & 0xff) << 8
+                | (compressed[offset + 18] & 0xff) << 16 | (compressed[offset + 19] & 0xff) << 24;
+            members.add(Arrays.toString(Arrays.copyOfRange(compressed, offset, offset + size)));
+            offset += size;
+        }
+        return members;
+    }
+
+    /**
+     * Growing the first record leaves the members of the records after it byte-identical,
+     * since every record starts a member of its own.
+     */
+    @Test
+    public void keepsMembersOfUnchangedRecords() throws IOException {
+        byte[] first = text(2 * AppConfig.COMPRESS_BLOCK_SIZE + 100);
+        byte[] changed = text(2 * AppConfig.COMPRESS_BLOCK_SIZE + 4321);
+        byte[] second = random(1000);
+        byte[] third = text(AppConfig.COMPRESS_BLOCK_SIZE + AppConfig.COMPRESS_BLOCK_SIZE / 2);
+
+        List<String> before = members(compressRecords(first, second, third));
+        List<String> after = members(compressRecords(changed, second, third));
+
+        assertEquals(6, before.size());
+        assertEquals(6, after.size());
+        assertFalse(before.get(2).equals(after.get(2)));
+        assertEquals(before.subList(3, 6), after.subList(3, 6));
+    }
+}
@@ -0,0 +1,111 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Unit tests for {@link RepoLock}.
+ * @author Leif Rogell
+ */
+public class RepoLockTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The same directory, however spelled, maps to one lock.
+     */
+    @Test
+    public void sharesLockPerDirectory() {
+        assertSame(RepoLock.forDirectory(dir), RepoLock.forDirectory(dir.resolve("x").resolve("..")));
+    }
+
+    /**
+     * Readers on different threads hold the lock together, and a writer cannot get it
+     * until the last one leaves.
+     */
+    @Test
+    public void readersExcludeWriters() throws Exception {
+        RepoLock lock = RepoLock.forDirectory(dir);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (RepoLock.Lease first = lock.shared()) {
+            CountDownLatch held = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Future<?> second = executor.submit(() -> {
+                    try (RepoLock.Lease lease = lock.shared()) {
+                        assertNotNull(lease);
+                        held.countDown();
+                        release.await();
+                    }
+                    return null;
+                });
+            assertTrue(held.await(5, TimeUnit.SECONDS));
+            assertNull(lock.tryExclusive());
+            release.countDown();
+            second.get(5, TimeUnit.SECONDS);
+            assertNull(executor.submit(lock::tryExclusive).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        RepoLock.Lease writer = lock.tryExclusive();
+        assertNotNull(writer);
+        writer.close();
+    }
+
+    /**
+     * A writer blocks readers on other threads until it releases the lock.
+     */
+    @Test
+    public void writerExcludesReaders() throws Exception {
+        RepoLock lock = RepoLock.forDirectory(dir);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> reader;
+            RepoLock.Lease writer = lock.exclusive();
+            try {
+                reader = executor.submit(() -> lock.withShared(() -> true));
+                assertThrows(TimeoutException.class,
+                         () -> reader.get(200, TimeUnit.MILLISECONDS));
+            } finally {
+                writer.close();
+            }
+            assertTrue(reader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The lambda helpers return the work's result and release the lock even when the
+     * work fails.
+     */
+    @Test
+    public void helpersReleaseOnFailure() throws Exception {
+        RepoLock lock = RepoLock.forDirectory(dir);
+        assertEquals("done", lock.withExclusive(() -> "done"));
+        assertThrows(IOException.class, () -> lock.withShared(() -> {
+                throw new IOException("failed");
+            }));
+        RepoLock.Lease writer = lock.tryExclusive();
+        assertNotNull(writer);
+        writer.close();
+        assertFalse(lock.withShared(() -> false));
+    }
+}
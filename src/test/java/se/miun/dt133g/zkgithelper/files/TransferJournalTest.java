@@ -0,0 +1,90 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Unit tests for {@link TransferJournal}.
+ * @author Leif Rogell
+ */
+public class TransferJournalTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Recorded stages survive reopening the journal, the latest detail of a stage wins,
+     * and completing a transfer forgets only its own stages.
+     */
+    @Test
+    public void recordsSurviveReopenUntilCompleted() {
+        TransferJournal journal = TransferJournal.open(dir);
+        journal.record("copy:a", AppConfig.JOURNAL_STAGE_COPIED, "100 10");
+        journal.record("copy:a", AppConfig.JOURNAL_STAGE_COPIED, "100 20");
+        journal.record("push:b", AppConfig.JOURNAL_STAGE_STAGED, null);
+
+        TransferJournal reopened = TransferJournal.open(dir);
+        assertEquals("100 20", reopened.detail("copy:a", AppConfig.JOURNAL_STAGE_COPIED));
+        assertTrue(reopened.isDone("push:b", AppConfig.JOURNAL_STAGE_STAGED));
+        assertEquals("", reopened.detail("push:b", AppConfig.JOURNAL_STAGE_STAGED));
+        assertFalse(reopened.isDone("push:b", AppConfig.JOURNAL_STAGE_PACKAGED));
+
+        reopened.complete("copy:a");
+        TransferJournal compacted = TransferJournal.open(dir);
+        assertNull(compacted.detail("copy:a", AppConfig.JOURNAL_STAGE_COPIED));
+        assertTrue(compacted.isDone("push:b", AppConfig.JOURNAL_STAGE_STAGED));
+    }
+
+    /**
+     * Records older than the resume window are ignored and dropped on the next compaction.
+     */
+    @Test
+    public void expiredRecordsAreIgnoredAndDropped() throws Exception {
+        long expired = System.currentTimeMillis() - AppConfig.JOURNAL_RESUME_WINDOW_MILLIS - 1000;
+        Files.write(dir.resolve(AppConfig.JOURNAL_FILE),
+                    (expired + " " + AppConfig.JOURNAL_STAGE_COPIED + " copy:old 100 50\n")
+                    .getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE);
+        TransferJournal journal = TransferJournal.open(dir);
+        assertNull(journal.detail("copy:old", AppConfig.JOURNAL_STAGE_COPIED));
+
+        journal.record("copy:new", AppConfig.JOURNAL_STAGE_COPIED, "100 10");
+        journal.complete("copy:new");
+        String content = new String(Files.readAllBytes(dir.resolve(AppConfig.JOURNAL_FILE)),
+                                    StandardCharsets.UTF_8);
+        assertFalse(content.contains("copy:old"));
+    }
+
+    /**
+     * Completing a transfer keeps the stages another helper recorded after this journal
+     * was opened.
+     */
+    @Test
+    public void completeKeepsStagesOfOtherHelpers() {
+        TransferJournal journal = TransferJournal.open(dir);
+        TransferJournal other = TransferJournal.open(dir);
+        journal.record("copy:a", AppConfig.JOURNAL_STAGE_COPIED, "100 10");
+        other.record("push:b", AppConfig.JOURNAL_STAGE_STAGED, null);
+        other.record("copy:c", AppConfig.JOURNAL_STAGE_COPIED, "200 20");
+
+        journal.complete("copy:a");
+        assertTrue(journal.isDone("push:b", AppConfig.JOURNAL_STAGE_STAGED));
+        other.complete("copy:c");
+
+        TransferJournal reopened = TransferJournal.open(dir);
+        assertNull(reopened.detail("copy:a", AppConfig.JOURNAL_STAGE_COPIED));
+        assertNull(reopened.detail("copy:c", AppConfig.JOURNAL_STAGE_COPIED));
+        assertTrue(reopened.isDone("push:b", AppConfig.JOURNAL_STAGE_STAGED));
+    }
+}
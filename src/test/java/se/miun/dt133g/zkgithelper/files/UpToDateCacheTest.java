@@ -0,0 +1,63 @@
+package se.miun.dt133g.zkgithelper.files;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unit tests for {@link UpToDateCache}.
+ * @author Leif Rogell
+ */
+public class UpToDateCacheTest {
+
+    private static final long TTL = 60_000;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A confirmed state is fresh for its own scope only, survives reopening, and is
+     * forgotten by invalidation.
+     */
+    @Test
+    public void confirmationIsScopedPersistedAndInvalidated() {
+        UpToDateCache cache = UpToDateCache.open(dir, TTL);
+        assertFalse(cache.isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "a"));
+
+        cache.confirm(AppConfig.UPTODATE_SCOPE_FETCH, "a");
+        assertTrue(cache.isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "a"));
+        assertFalse(cache.isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "b"));
+        assertFalse(cache.isFresh(AppConfig.UPTODATE_SCOPE_PUSH, "a"));
+
+        UpToDateCache reopened = UpToDateCache.open(dir, TTL);
+        assertTrue(reopened.isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "a"));
+
+        reopened.invalidate();
+        assertFalse(reopened.isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "a"));
+        assertFalse(UpToDateCache.open(dir, TTL).isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "a"));
+    }
+
+    /**
+     * Confirmations older than the time-to-live are stale, and a zero time-to-live
+     * disables the cache.
+     */
+    @Test
+    public void staleOrDisabledConfirmationsAreNotFresh() throws Exception {
+        long old = System.currentTimeMillis() - TTL - 1000;
+        Files.write(dir.resolve(AppConfig.UPTODATE_FILE),
+                    (old + " " + AppConfig.UPTODATE_SCOPE_FETCH + " a\n").getBytes(StandardCharsets.UTF_8));
+        assertFalse(UpToDateCache.open(dir, TTL).isFresh(AppConfig.UPTODATE_SCOPE_FETCH, "a"));
+
+        UpToDateCache disabled = UpToDateCache.open(dir, 0);
+        disabled.confirm(AppConfig.UPTODATE_SCOPE_PUSH, "a");
+        assertFalse(disabled.isFresh(AppConfig.UPTODATE_SCOPE_PUSH, "a"));
+    }
+}
@@ -0,0 +1,62 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Unit tests for {@link BundleHandoff}.
+ * @author Leif Rogell
+ */
+public class BundleHandoffTest {
+
+    @TempDir
+    Path dir;
+
+    private static RevCommit commit(final Git git, final String name) throws Exception {
+        Files.write(git.getRepository().getWorkTree().toPath().resolve(name),
+                    name.getBytes(StandardCharsets.UTF_8));
+        git.add().addFilepattern(name).call();
+        return git.commit().setMessage(name).setAuthor("a", "a@example.com")
+            .setCommitter("a", "a@example.com").setSign(false).call();
+    }
+
+    /**
+     * The tips read back from a bundle are the refs written into it, and only recorded
+     * tips become the base of the next bundle; a deleted branch is dropped from them.
+     */
+    @Test
+    public void recordsExactlyTheBundledTips() throws Exception {
+        Path work = Files.createDirectory(dir.resolve("work"));
+        try (Git git = Git.init().setDirectory(work.toFile()).call()) {
+            RevCommit first = commit(git, "a.txt");
+            git.branchCreate().setName("side").call();
+            BundleHandoff handoff = new BundleHandoff(git.getRepository(), dir);
+
+            Path bundle = handoff.writeBundle();
+            List<ObjectId> tips = BundleHandoff.readBundleTips(bundle);
+            assertEquals(List.of(first.getId(), first.getId()), tips);
+            assertTrue(handoff.readTips().isEmpty());
+
+            git.branchDelete().setBranchNames("side").call();
+            RevCommit second = commit(git, "b.txt");
+            handoff.recordTips(tips);
+            assertEquals(tips, handoff.readTips());
+
+            List<ObjectId> next = BundleHandoff.readBundleTips(handoff.writeBundle());
+            assertEquals(List.of(second.getId()), next);
+            handoff.recordTips(next);
+            assertEquals(List.of(second.getId()), handoff.readTips());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import se.miun.dt133g.zkgithelper.support.AppConfig;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link GitCommands}.
+ * @author Leif Rogell
+ */
+public class GitCommandsTest {
+
+    @TempDir
+    Path dir;
+
+    private static RevCommit commit(final Git git, final String name, final String content) throws Exception {
+        File work = git.getRepository().getWorkTree();
+        Files.write(work.toPath().resolve(name), content.getBytes(StandardCharsets.UTF_8));
+        git.add().addFilepattern(name).call();
+        return git.commit().setMessage(name).setAuthor("a", "a@example.com")
+            .setCommitter("a", "a@example.com").setSign(false).call();
+    }
+
+    private static Set<ObjectId> list(final Git git, final List<? extends AnyObjectId> exclude) throws Exception {
+        Set<ObjectId> listed = new HashSet<>();
+        long count = new GitCommands().listObjects(Constants.HEAD, exclude, git.getRepository(),
+                                                   object -> assertTrue(listed.add(object.copy())));
+        assertEquals(listed.size(), count);
+        return listed;
+    }
+
+    /**
+     * Without exclusions every commit, tree and blob reachable from HEAD is listed once.
+     */
+    @Test
+    public void listsAllReachableObjects() throws Exception {
+        try (Git git = Git.init().setDirectory(dir.toFile()).call()) {
+            RevCommit first = commit(git, "a.txt", "a");
+            RevCommit second = commit(git, "b.txt", "b");
+
+            Set<ObjectId> listed = list(git, Collections.emptyList());
+
+            // two commits, two root trees, two blobs
+            assertEquals(6, listed.size());
+            assertTrue(listed.contains(first.getId()));
+            assertTrue(listed.contains(second.getTree().getId()));
+        }
+    }
+
+    /**
+     * An excluded commit removes its history from the listing; an excluded ID that the
+     * repository lacks is ignored.
+     */
+    @Test
+    public void skipsExcludedHistory() throws Exception {
+        try (Git git = Git.init().setDirectory(dir.toFile()).call()) {
+            RevCommit first = commit(git, "a.txt", "a");
+            RevCommit second = commit(git, "b.txt", "b");
+            ObjectId missing = ObjectId.fromString("0123456789012345678901234567890123456789");
+
+            Set<ObjectId> listed = list(git, List.of(first.getId(), missing));
+
+            // the second commit, its tree and the new blob
+            assertEquals(3, listed.size());
+            assertTrue(listed.contains(second.getId()));
+            assertFalse(listed.contains(first.getId()));
+            assertFalse(listed.contains(first.getTree().getId()));
+        }
+    }
+
+    /**
+     * A blob above the streaming threshold is read through the bounded-buffer stream
+     * and never loaded whole, while a small blob is still returned as bytes.
+     */
+    @Test
+    public void streamsBlobsAboveThreshold() throws Exception {
+        WindowCacheConfig small = new WindowCacheConfig();
+        small.setStreamFileThreshold(4 * 1024);
+        small.install();
+        try (Git git = Git.init().setDirectory(dir.toFile()).call()) {
+            Repository repository = git.getRepository();
+            byte[] large = new byte[3 * AppConfig.STREAM_BLOCK_SIZE + 123];
+            new Random(11).nextBytes(large);
+            byte[] tiny = "tiny".getBytes(StandardCharsets.UTF_8);
+            ObjectId largeId;
+            ObjectId tinyId;
+            try (ObjectInserter inserter = repository.newObjectInserter()) {
+                largeId = inserter.insert(Constants.OBJ_BLOB, large);
+                tinyId = inserter.insert(Constants.OBJ_BLOB, tiny);
+                inserter.flush();
+            }
+            GitCommands commands = new GitCommands();
+            assertTrue(repository.open(largeId).isLarge());
+
+            ByteArrayOutputStream copied = new ByteArrayOutputStream();
+            assertEquals(large.length, commands.copyObject(largeId.getName(), repository, copied));
+            assertArrayEquals(large, copied.toByteArray());
+            try (InputStream in = commands.openObject(largeId.getName(), repository)) {
+                assertArrayEquals(large, in.readAllBytes());
+            }
+            assertThrows(IOException.class, () -> commands.objectData(largeId.getName(), "blob", repository));
+            assertArrayEquals(tiny, commands.objectData(tinyId.getName(), "blob", repository));
+            assertEquals(-1, commands.copyObject(ObjectId.zeroId().getName(), repository, copied));
+        } finally {
+            new WindowCacheConfig().install();
+        }
+    }
+}
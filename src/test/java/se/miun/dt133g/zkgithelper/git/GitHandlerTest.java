@@ -0,0 +1,125 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link GitHandler}.
+ * @author Leif Rogell
+ */
+public class GitHandlerTest {
+
+    @TempDir
+    Path dir;
+
+    private static RevCommit commit(final Git git, final String name) throws Exception {
+        Files.write(git.getRepository().getWorkTree().toPath().resolve(name),
+                    name.getBytes(StandardCharsets.UTF_8));
+        git.add().addFilepattern(name).call();
+        return git.commit().setMessage(name).setAuthor("a", "a@example.com")
+            .setCommitter("a", "a@example.com").setSign(false).call();
+    }
+
+    private static List<String> list(final Repository repository, final String line, final boolean peel)
+        throws Exception {
+        StringWriter buffer = new StringWriter();
+        try (PrintWriter out = new PrintWriter(buffer)) {
+            GitHandler.writeRefs(out, repository, GitHandler.parseRefPrefixes(line), peel);
+        }
+        return Arrays.asList(buffer.toString().split("\\R"));
+    }
+
+    /**
+     * A list without {@code ref-prefix} lists branches and tags, peeling annotated tags
+     * only; {@code ref-prefix} arguments narrow it, and a list for push never peels.
+     */
+    @Test
+    public void listsRefsByPrefixAndPeelsAnnotatedTags() throws Exception {
+        try (Git git = Git.init().setDirectory(dir.toFile()).setInitialBranch("main").call()) {
+            RevCommit head = commit(git, "a.txt");
+            Ref annotated = git.tag().setName("v1").setMessage("v1").setAnnotated(true)
+                .setTagger(new PersonIdent("a", "a@example.com")).setSigned(false).call();
+            git.tag().setName("light").setAnnotated(false).call();
+            Repository repository = git.getRepository();
+            String commit = head.getName();
+            String tag = annotated.getObjectId().getName();
+
+            assertEquals(List.of(commit + " refs/heads/main",
+                                 commit + " refs/tags/light",
+                                 tag + " refs/tags/v1",
+                                 commit + " refs/tags/v1^{}"),
+                         list(repository, "list", true));
+            assertEquals(List.of(tag + " refs/tags/v1",
+                                 commit + " refs/tags/v1^{}"),
+                         list(repository, "list ref-prefix refs/tags/v", true));
+            assertEquals(List.of(commit + " refs/heads/main",
+                                 commit + " refs/tags/light"),
+                         list(repository, "list ref-prefix refs/heads/ ref-prefix refs/tags/l", true));
+            assertEquals(List.of(commit + " refs/heads/main",
+                                 commit + " refs/tags/light",
+                                 tag + " refs/tags/v1"),
+                         list(repository, "list for-push", false));
+        }
+    }
+
+    /**
+     * Converting to reftable and back to files keeps every ref and records the format
+     * in {@code extensions.refStorage}; asking for the current format changes nothing.
+     */
+    @Test
+    public void convertsRefStorageBothWays() throws Exception {
+        try (Git git = Git.init().setDirectory(dir.toFile()).setInitialBranch("main").call()) {
+            RevCommit head = commit(git, "a.txt");
+            git.branchCreate().setName("side").call();
+            git.tag().setName("light").setAnnotated(false).call();
+        }
+        Path gitDir = dir.resolve(".git");
+        List<String> names = List.of("refs/heads/main", "refs/heads/side", "refs/tags/light");
+
+        try (FileRepository repository = new FileRepository(gitDir.toFile())) {
+            assertFalse(GitHandler.convertRefStorage(repository, null));
+            assertTrue(GitHandler.convertRefStorage(repository, "reftable"));
+            assertFalse(GitHandler.convertRefStorage(repository, "REFTABLE"));
+        }
+        try (FileRepository repository = new FileRepository(gitDir.toFile())) {
+            assertEquals(ConfigConstants.CONFIG_REF_STORAGE_REFTABLE,
+                         repository.getConfig().getString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+                                                          ConfigConstants.CONFIG_KEY_REF_STORAGE));
+            assertRefs(repository, names);
+            assertTrue(GitHandler.convertRefStorage(repository, "files"));
+        }
+        try (FileRepository repository = new FileRepository(gitDir.toFile())) {
+            assertNull(repository.getConfig().getString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+                                                        ConfigConstants.CONFIG_KEY_REF_STORAGE));
+            assertFalse(Files.exists(gitDir.resolve("reftable")));
+            assertRefs(repository, names);
+        }
+    }
+
+    private static void assertRefs(final Repository repository, final List<String> names) throws Exception {
+        String main = repository.exactRef(names.get(0)).getObjectId().getName();
+        for (String name : names) {
+            assertEquals(main, repository.exactRef(name).getObjectId().getName(), name);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Unit tests for {@link ObjectIdHashSet}.
+ * @author Leif Rogell
+ */
+public class ObjectIdHashSetTest {
+
+    private static ObjectId id(final int n) throws NoSuchAlgorithmException {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        return ObjectId.fromRaw(sha1.digest(ByteBuffer.allocate(Integer.BYTES).putInt(n).array()));
+    }
+
+    /**
+     * Every added ID is found after the table has grown several times, and no other is.
+     */
+    @Test
+    public void containsAddedIdsAcrossGrowth() throws NoSuchAlgorithmException {
+        ObjectIdHashSet set = new ObjectIdHashSet();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(set.add(id(i)));
+        }
+        assertEquals(10_000, set.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(set.contains(id(i)));
+        }
+        for (int i = 10_000; i < 11_000; i++) {
+            assertFalse(set.contains(id(i)));
+        }
+    }
+
+    /**
+     * Adding an ID twice keeps one entry, also for a different instance of the same ID.
+     */
+    @Test
+    public void ignoresDuplicates() throws NoSuchAlgorithmException {
+        ObjectIdHashSet set = new ObjectIdHashSet(1);
+        assertTrue(set.add(id(1)));
+        assertFalse(set.add(id(1).copy()));
+        assertFalse(set.add(ObjectId.fromString(id(1).name())));
+        assertEquals(1, set.size());
+    }
+}
@@ -0,0 +1,75 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ObjectIdIndex}.
+ * @author Leif Rogell
+ */
+public class ObjectIdIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private static ObjectId id(final int n) throws Exception {
+        return ObjectId.fromRaw(MessageDigest.getInstance("SHA-1").digest(Integer.toString(n).getBytes()));
+    }
+
+    private List<ObjectId> writeLoose(final Path objects, final int from, final int to) throws Exception {
+        List<ObjectId> ids = new ArrayList<>();
+        for (int n = from; n < to; n++) {
+            ObjectId id = id(n);
+            Path file = objects.resolve(id.name().substring(0, 2)).resolve(id.name().substring(2));
+            Files.createDirectories(file.getParent());
+            Files.createFile(file);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Every scanned or added object is found again, also after saving and reopening,
+     * and refreshing directories that were still changing does not count their objects twice.
+     */
+    @Test
+    public void findsEveryObjectAcrossRefreshAndReopen() throws Exception {
+        Path objects = Files.createDirectory(dir.resolve("objects"));
+        Path file = dir.resolve("index.bloom");
+        List<ObjectId> scanned = writeLoose(objects, 0, 500);
+
+        ObjectIdIndex index = ObjectIdIndex.open(objects, file);
+        long count = index.size();
+        index.refresh();
+        index.refresh();
+        assertEquals(count, index.size());
+
+        List<ObjectId> added = writeLoose(objects, 500, 600);
+        for (ObjectId id : added) {
+            index.add(id);
+        }
+        index.add(added.get(0));
+        index.save();
+
+        ObjectIdIndex reopened = ObjectIdIndex.open(objects, file);
+        for (ObjectId id : scanned) {
+            assertTrue(reopened.mightContain(id), id.name());
+        }
+        for (ObjectId id : added) {
+            assertTrue(reopened.mightContain(id), id.name());
+        }
+        assertTrue(reopened.size() <= 600);
+        assertFalse(reopened.mightContain(id(-1)) && reopened.mightContain(id(-2)) && reopened.mightContain(id(-3)));
+    }
+}
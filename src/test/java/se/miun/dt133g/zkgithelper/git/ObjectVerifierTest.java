@@ -0,0 +1,90 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ObjectVerifier}.
+ * @author Leif Rogell
+ */
+public class ObjectVerifierTest {
+
+    @TempDir
+    Path dir;
+
+    private static Path loose(final Path objects, final ObjectId id) {
+        return objects.resolve(id.name().substring(0, 2)).resolve(id.name().substring(2));
+    }
+
+    private static byte[] withTrailer(final byte[] body, final boolean valid) throws Exception {
+        byte[] trailer = MessageDigest.getInstance("SHA-1").digest(body);
+        if (!valid) {
+            trailer[0] ^= 1;
+        }
+        byte[] file = new byte[body.length + trailer.length];
+        System.arraycopy(body, 0, file, 0, body.length);
+        System.arraycopy(trailer, 0, file, body.length, trailer.length);
+        return file;
+    }
+
+    /**
+     * Intact files pass; every corrupt file is reported with its path, and collecting
+     * continues past the first failure.
+     */
+    @Test
+    public void reportsEveryCorruptFileWithItsPath() throws Exception {
+        try (Git git = Git.init().setBare(true).setDirectory(dir.toFile()).call();
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            ObjectId good = inserter.insert(Constants.OBJ_BLOB, "good".getBytes(StandardCharsets.UTF_8));
+            ObjectId bad = inserter.insert(Constants.OBJ_BLOB, "bad".getBytes(StandardCharsets.UTF_8));
+            inserter.flush();
+            Path objects = git.getRepository().getDirectory().toPath().resolve("objects");
+            Path badFile = loose(objects, bad);
+            badFile.toFile().setWritable(true);
+            Files.write(badFile, new byte[] {1, 2, 3});
+
+            Path packDir = Files.createDirectories(objects.resolve("pack"));
+            byte[] body = "PACK body".getBytes(StandardCharsets.UTF_8);
+            Path intactPack = Files.write(packDir.resolve("pack-a.pack"), withTrailer(body, true));
+            Path corruptPack = Files.write(packDir.resolve("pack-b.pack"), withTrailer(body, false));
+
+            List<String> failures;
+            try (ObjectVerifier verifier = new ObjectVerifier()) {
+                for (Path file : List.of(loose(objects, good), badFile, intactPack, corruptPack)) {
+                    verifier.submit(objects, file);
+                }
+                failures = verifier.awaitFailures();
+            }
+
+            assertEquals(2, failures.size());
+            assertTrue(failures.get(0).startsWith(objects.relativize(badFile) + ": "), failures.get(0));
+            assertTrue(failures.get(1).startsWith(objects.relativize(corruptPack) + ": "), failures.get(1));
+        }
+    }
+
+    /**
+     * A failing pack file takes every file of its pack along; a loose object only itself.
+     */
+    @Test
+    public void packFilesAreRemovedTogether() {
+        Path pack = dir.resolve("pack").resolve("pack-a.idx");
+        assertEquals(List.of(dir.resolve("pack/pack-a.pack"), dir.resolve("pack/pack-a.idx"),
+                             dir.resolve("pack/pack-a.rev"), dir.resolve("pack/pack-a.bitmap")),
+                     ObjectVerifier.withCompanions(pack));
+        Path loose = dir.resolve("ab").resolve("cdef");
+        assertEquals(List.of(loose), ObjectVerifier.withCompanions(loose));
+    }
+}
@@ -0,0 +1,105 @@
+package se.miun.dt133g.zkgithelper.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link RefMerkleTree}, comparing against a fake client whose answers
+ * come from the tree of a second repository.
+ * @author Leif Rogell
+ */
+public class RefMerkleTreeTest {
+
+    @TempDir
+    Path dir;
+
+    private static RevCommit commit(final Git git, final String name) throws Exception {
+        Files.write(git.getRepository().getWorkTree().toPath().resolve(name),
+                    name.getBytes(StandardCharsets.UTF_8));
+        git.add().addFilepattern(name).call();
+        return git.commit().setMessage(name).setAuthor("a", "a@example.com")
+            .setCommitter("a", "a@example.com").setSign(false).call();
+    }
+
+    /**
+     * Records every node hash of a tree by descending into all of it.
+     */
+    private static Map<String, Map<String, String>> nodesOf(final RefMerkleTree tree) throws Exception {
+        Map<String, Map<String, String>> nodes = new HashMap<>();
+        tree.diff((kind, scope, sent) -> {
+                nodes.put(kind + " " + scope, new HashMap<>(sent));
+                return new LinkedHashSet<>(sent.keySet());
+            });
+        return nodes;
+    }
+
+    /**
+     * A fake client answering with the keys whose hashes differ from its own tree,
+     * including keys only it has.
+     */
+    private static RefMerkleTree.Exchange client(final Map<String, Map<String, String>> held) {
+        return (kind, scope, sent) -> {
+            Map<String, String> own = held.getOrDefault(kind + " " + scope, Map.of());
+            Set<String> differing = new LinkedHashSet<>();
+            for (Map.Entry<String, String> node : sent.entrySet()) {
+                if (!node.getValue().equals(own.get(node.getKey()))) {
+                    differing.add(node.getKey());
+                }
+            }
+            for (String key : own.keySet()) {
+                if (!sent.containsKey(key)) {
+                    differing.add(key);
+                }
+            }
+            return differing;
+        };
+    }
+
+    /**
+     * Equal trees have no differing refs; a moved branch and a branch only the client
+     * has are both reported.
+     */
+    @Test
+    public void findsRefsTheClientHoldsDifferently() throws Exception {
+        try (Git local = Git.init().setDirectory(dir.resolve("local").toFile()).call();
+             Git remote = Git.init().setDirectory(dir.resolve("remote").toFile()).call()) {
+            RevCommit base = commit(local, "a.txt");
+            remote.fetch().setRemote(local.getRepository().getDirectory().getPath())
+                .setRefSpecs("refs/heads/*:refs/heads/*").call();
+            remote.reset().setRef(base.name()).call();
+
+            RefMerkleTree tree = new RefMerkleTree(local.getRepository());
+            assertTrue(tree.diff(client(nodesOf(new RefMerkleTree(remote.getRepository())))).isEmpty());
+
+            commit(remote, "b.txt");
+            remote.branchCreate().setName("side").call();
+            Map<String, Integer> changed = tree.diff(client(nodesOf(new RefMerkleTree(remote.getRepository()))));
+            assertEquals(Map.of("refs/heads/master", 0, "refs/heads/side", 0), changed);
+        }
+    }
+
+    /**
+     * A client that cannot compare trees yields null, so the caller requests everything.
+     */
+    @Test
+    public void unsupportedClientYieldsNull() throws Exception {
+        try (Git local = Git.init().setDirectory(dir.toFile()).call()) {
+            commit(local, "a.txt");
+            assertNull(new RefMerkleTree(local.getRepository()).diff((kind, scope, nodes) -> null));
+        }
+    }
+}
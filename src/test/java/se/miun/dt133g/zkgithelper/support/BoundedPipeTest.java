@@ -0,0 +1,100 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link BoundedPipe}.
+ * @author Leif Rogell
+ */
+public class BoundedPipeTest {
+
+    private static byte[] data(final int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private static byte[] drain(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Everything written before the sink is closed reaches the consumer in order, even
+     * when it is larger than the pipe holds at once.
+     */
+    @Test
+    public void deliversDataInOrder() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(16, 2);
+        byte[] data = data(1000);
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+                try (OutputStream out = pipe.sink()) {
+                    out.write(data);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        try (InputStream in = pipe.source()) {
+            assertArrayEquals(data, drain(in));
+        }
+        producer.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A failing producer hands its error to the consumer after the data written before it.
+     */
+    @Test
+    public void failureReachesConsumerAfterData() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(4, 8);
+        OutputStream out = pipe.sink();
+        out.write(data(6));
+        out.flush();
+        pipe.fail(new IllegalStateException("boom"));
+
+        InputStream in = pipe.source();
+        byte[] buffer = new byte[6];
+        assertEquals(4, in.read(buffer));
+        assertEquals(2, in.read(buffer, 4, 2));
+        IOException e = assertThrows(IOException.class, () -> in.read(buffer));
+        assertEquals("boom", e.getMessage());
+    }
+
+    /**
+     * A consumer closing the source cancels a producer blocked on a full pipe.
+     */
+    @Test
+    public void closingSourceCancelsProducer() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(4, 1);
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+                try (OutputStream out = pipe.sink()) {
+                    out.write(data(1 << 16));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        InputStream in = pipe.source();
+        assertEquals(4, in.read(new byte[4]));
+        in.close();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> producer.get(10, TimeUnit.SECONDS));
+        assertEquals(AppConfig.ERROR_STREAM_CANCELLED, e.getCause().getCause().getMessage());
+    }
+}
@@ -0,0 +1,39 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.eclipse.jgit.lib.Config;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+/**
+ * Unit tests for {@link Settings}.
+ * @author Leif Rogell
+ */
+public class SettingsTest {
+
+    /**
+     * {@code ZKGIT_*} variables override the configured {@code zkgit} keys regardless of
+     * case, other keys and variables are left alone, and the base configuration is
+     * never changed.
+     */
+    @Test
+    public void layersEnvironmentOverConfig() {
+        Config base = new Config();
+        base.setInt(AppConfig.CONFIG_ZKGIT_SECTION, null, AppConfig.CONFIG_KEY_SOCKET_THREADS, 2);
+        base.setInt(AppConfig.CONFIG_ZKGIT_SECTION, null, AppConfig.CONFIG_KEY_THREADS, 3);
+
+        Config layered = Settings.layer(base, Map.of("ZKGIT_SOCKETTHREADS", "4",
+                                                     "ZKGIT_", "5",
+                                                     "HOME", "/home/a"));
+
+        assertEquals(4, layered.getInt(AppConfig.CONFIG_ZKGIT_SECTION, AppConfig.CONFIG_KEY_SOCKET_THREADS, 0));
+        assertEquals(3, layered.getInt(AppConfig.CONFIG_ZKGIT_SECTION, AppConfig.CONFIG_KEY_THREADS, 0));
+        assertEquals(2, base.getInt(AppConfig.CONFIG_ZKGIT_SECTION, AppConfig.CONFIG_KEY_SOCKET_THREADS, 0));
+        assertNull(layered.getString(AppConfig.CONFIG_ZKGIT_SECTION, null, "home"));
+        assertFalse(layered.getNames(AppConfig.CONFIG_ZKGIT_SECTION).contains(""));
+    }
+}
@@ -0,0 +1,75 @@
+package se.miun.dt133g.zkgithelper.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link SharedExecutor.Group}.
+ * @author Leif Rogell
+ */
+public class SharedExecutorTest {
+
+    /**
+     * A task failing after a slower one was submitted is rethrown without waiting for
+     * the slower one, which is cancelled and interrupted as soon as the failure occurs.
+     */
+    @Test
+    public void firstFailureCancelsTheRest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (SharedExecutor.Group group = SharedExecutor.INSTANCE.newGroup()) {
+            Future<?> slow = group.submit(SharedExecutor.Resource.DISK, () -> {
+                    started.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            group.submit(SharedExecutor.Resource.DISK, () -> {
+                    throw new IOException("broken");
+                });
+
+            IOException failure = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(IOException.class, group::await));
+            assertEquals("broken", failure.getMessage());
+            assertTrue(slow.isCancelled());
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Without failures, awaiting returns once every task has run, including tasks the
+     * group's tasks submitted themselves.
+     */
+    @Test
+    public void awaitsEveryTask() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        try (SharedExecutor.Group group = SharedExecutor.INSTANCE.newGroup()) {
+            group.submit(SharedExecutor.Resource.CPU, () -> {
+                    group.submit(SharedExecutor.Resource.SOCKET, () -> {
+                            Thread.sleep(50);
+                            return runs.incrementAndGet();
+                        });
+                    return runs.incrementAndGet();
+                });
+            group.submit(SharedExecutor.Resource.DISK, runs::incrementAndGet);
+
+            group.await();
+            assertEquals(3, runs.get());
+        }
+    }
+}